@@ -0,0 +1,161 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Узел двусвязного списка
+class Node {
+    String data;
+    Node next;
+    Node prev;
+
+    public Node(String data) {
+        this.data = data;
+    }
+}
+
+// Кастомный двусвязный список с синхронизацией
+class CustomLinkedList implements SortableList, Iterable<String> {
+    private Node head;
+    private Node tail;
+    private final Object lock = new Object();
+    private final AtomicInteger size = new AtomicInteger(0);
+    // Имитация задержки на каждую пару
+    private final long pairDelayMillis;
+    // Сравнённые пары соседей, для замера пропускной способности
+    private final LongAdder compared = new LongAdder();
+
+    public CustomLinkedList() {
+        this(10);
+    }
+
+    public CustomLinkedList(long pairDelayMillis) {
+        this.pairDelayMillis = pairDelayMillis;
+    }
+
+    @Override
+    public void addFirst(String data) {
+        if (data == null) return;
+
+        List<String> parts = splitString(data);
+
+        synchronized(lock) {
+            for (int i = parts.size() - 1; i >= 0; i--) {
+                String part = parts.get(i);
+                Node newNode = new Node(part);
+
+                if (head == null) {
+                    head = tail = newNode;
+                } else {
+                    newNode.next = head;
+                    head.prev = newNode;
+                    head = newNode;
+                }
+                size.incrementAndGet();
+            }
+        }
+    }
+
+    // Разбивка строки на части по 80 символов
+    private List<String> splitString(String s) {
+        List<String> parts = new ArrayList<>();
+        int index = 0;
+        while (index < s.length()) {
+            int end = Math.min(index + 80, s.length());
+            parts.add(s.substring(index, end));
+            index = end;
+        }
+        return parts;
+    }
+
+    @Override
+    public boolean bubbleSortStep() throws InterruptedException {
+        synchronized(lock) {
+            if (head == null || head.next == null) {
+                return false;
+            }
+
+            boolean swapped = false;
+            Node current = head;
+
+            while (current != null && current.next != null) {
+                // Захватываем узлы в порядке от головы к хвосту (для предотвращения deadlock)
+                Node first = current;
+                Node second = current.next;
+
+                // Имитация задержки
+                if (pairDelayMillis > 0) {
+                    Thread.sleep(pairDelayMillis);
+                }
+
+                compared.increment();
+                if (first.data.compareTo(second.data) > 0) {
+                    swapNodes(first, second);
+                    swapped = true;
+
+                    // Если поменяли head, обновляем указатель
+                    if (first == head) {
+                        head = second;
+                    }
+                    if (second == tail) {
+                        tail = first;
+                    }
+                    // first уже сдвинулся на место second, следующая пара - first и его новый сосед
+                } else {
+                    current = second;
+                }
+            }
+            return swapped;
+        }
+    }
+
+    private void swapNodes(Node a, Node b) {
+        if (a.next != b) {
+            throw new IllegalArgumentException("Nodes must be adjacent");
+        }
+
+        Node aPrev = a.prev;
+        Node bNext = b.next;
+
+        if (aPrev != null) {
+            aPrev.next = b;
+        }
+        if (bNext != null) {
+            bNext.prev = a;
+        }
+
+        // Обновляем ссылки между a и b
+        a.next = bNext;
+        a.prev = b;
+        b.next = a;
+        b.prev = aPrev;
+    }
+
+    //для вывода
+    @Override
+    public List<String> toList() {
+        synchronized(lock) {
+            List<String> result = new ArrayList<>();
+            Node current = head;
+            while (current != null) {
+                result.add(current.data);
+                current = current.next;
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return toList().iterator();
+    }
+
+    @Override
+    public long comparedPairs() {
+        return compared.sum();
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+}
@@ -0,0 +1,193 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Двусвязный список с блокировкой на каждом узле. Потоки сортировки идут от головы к хвосту
+// перехватом (hand-over-hand): берут следующий узел, пока держат текущий, и только потом отпускают
+// предыдущий. Поэтому несколько проходов идут друг за другом конвейером, обогнать друг друга не могут,
+// а addFirst ждёт, только пока проход сравнивает первую пару.
+//
+// Связь x -> x.next в обе стороны (x.next и x.next.prev) меняется только под блокировкой x.
+// Перестановка соседей a, b с предыдущим p меняет связи p -> a, a -> b, b -> n, поэтому держит p, a и b.
+// Голова и хвост - пустые узлы-заглушки, они никогда не переставляются.
+class HandOverHandLinkedList implements SortableList, Iterable<String> {
+    private final LockedNode head = new LockedNode(null);
+    private final LockedNode tail = new LockedNode(null);
+    private final AtomicInteger size = new AtomicInteger(0);
+    // Имитация задержки на каждую пару, как в CustomLinkedList
+    private final long pairDelayMillis;
+    // Сравнённые пары соседей, для замера пропускной способности
+    private final LongAdder compared = new LongAdder();
+
+    public HandOverHandLinkedList() {
+        this(10);
+    }
+
+    public HandOverHandLinkedList(long pairDelayMillis) {
+        this.pairDelayMillis = pairDelayMillis;
+        head.next = tail;
+        tail.prev = head;
+    }
+
+    @Override
+    public void addFirst(String data) {
+        if (data == null) return;
+
+        List<String> parts = splitString(data);
+
+        // Меняется только связь head -> первый узел, хватает блокировки головы
+        head.lock.lock();
+        try {
+            for (int i = parts.size() - 1; i >= 0; i--) {
+                LockedNode newNode = new LockedNode(parts.get(i));
+                LockedNode first = head.next;
+                newNode.next = first;
+                newNode.prev = head;
+                first.prev = newNode;
+                head.next = newNode;
+                size.incrementAndGet();
+            }
+        } finally {
+            head.lock.unlock();
+        }
+    }
+
+    // Разбивка строки на части по 80 символов
+    private List<String> splitString(String s) {
+        List<String> parts = new ArrayList<>();
+        int index = 0;
+        while (index < s.length()) {
+            int end = Math.min(index + 80, s.length());
+            parts.add(s.substring(index, end));
+            index = end;
+        }
+        return parts;
+    }
+
+    @Override
+    public boolean bubbleSortStep() throws InterruptedException {
+        boolean swapped = false;
+
+        // Между парами держим два узла (prev, first), во время сравнения - три
+        LockedNode prev = head;
+        prev.lock.lock();
+        LockedNode first = prev.next;
+        first.lock.lock();
+        try {
+            while (first != tail && first.next != tail) {
+                LockedNode second = first.next;
+                second.lock.lock();
+
+                // Имитация задержки
+                if (pairDelayMillis > 0) {
+                    try {
+                        Thread.sleep(pairDelayMillis);
+                    } catch (InterruptedException e) {
+                        second.lock.unlock();
+                        throw e;
+                    }
+                }
+
+                compared.increment();
+                if (first.data.compareTo(second.data) > 0) {
+                    swapNodes(prev, first, second);
+                    swapped = true;
+                    // Порядок стал prev, second, first: большее значение идёт дальше вместе с first
+                    prev.lock.unlock();
+                    prev = second;
+                } else {
+                    prev.lock.unlock();
+                    prev = first;
+                    first = second;
+                }
+            }
+            return swapped;
+        } finally {
+            first.lock.unlock();
+            prev.lock.unlock();
+        }
+    }
+
+    // Вызывается под блокировками prev, a и b
+    private void swapNodes(LockedNode prev, LockedNode a, LockedNode b) {
+        if (prev.next != a || a.next != b) {
+            throw new IllegalArgumentException("Nodes must be adjacent");
+        }
+
+        LockedNode bNext = b.next;
+
+        prev.next = b;
+        bNext.prev = a;
+
+        // Обновляем ссылки между a и b
+        a.next = bNext;
+        a.prev = b;
+        b.next = a;
+        b.prev = prev;
+    }
+
+    // Снимок тоже идёт перехватом: проходы сортировки не могут перенести узел через читающего,
+    // поэтому каждый элемент попадает в снимок ровно один раз
+    @Override
+    public List<String> toList() {
+        List<String> result = new ArrayList<>();
+        LockedNode current = head;
+        current.lock.lock();
+        try {
+            while (current.next != tail) {
+                LockedNode next = current.next;
+                next.lock.lock();
+                current.lock.unlock();
+                current = next;
+                result.add(current.data);
+            }
+            return result;
+        } finally {
+            current.lock.unlock();
+        }
+    }
+
+    // Проверка связей в обе стороны. Вызывать, когда список никто не меняет
+    void checkLinks() {
+        int count = 0;
+        LockedNode previous = head;
+        for (LockedNode current = head.next; current != null; current = current.next) {
+            if (current.prev != previous) {
+                throw new IllegalStateException("Broken prev link after " + count + " nodes");
+            }
+            previous = current;
+            count++;
+        }
+        if (previous != tail || count - 1 != size.get()) {
+            throw new IllegalStateException("List has " + (count - 1) + " nodes, size is " + size.get());
+        }
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return toList().iterator();
+    }
+
+    @Override
+    public long comparedPairs() {
+        return compared.sum();
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    // Узел со своей блокировкой
+    private static final class LockedNode {
+        final String data;
+        final ReentrantLock lock = new ReentrantLock();
+        LockedNode next;
+        LockedNode prev;
+
+        LockedNode(String data) {
+            this.data = data;
+        }
+    }
+}
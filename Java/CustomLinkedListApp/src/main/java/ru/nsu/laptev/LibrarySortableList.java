@@ -0,0 +1,73 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Библиотечный список за общим контрактом SortableList, для сравнения с собственными списками
+class LibrarySortableList implements SortableList {
+    private final List<String> list;
+    // Имитация задержки на каждую пару
+    private final long pairDelayMillis;
+    // Сравнённые пары соседей, для замера пропускной способности
+    private final LongAdder compared = new LongAdder();
+
+    public LibrarySortableList(long pairDelayMillis) {
+        this(Collections.synchronizedList(new ArrayList<>()), pairDelayMillis);
+    }
+
+    // list - синхронизированный список, блокировка берётся на нём самом
+    public LibrarySortableList(List<String> list, long pairDelayMillis) {
+        this.list = list;
+        this.pairDelayMillis = pairDelayMillis;
+    }
+
+    @Override
+    public void addFirst(String data) {
+        if (data == null) return;
+
+        List<String> parts = SortingListLibrary.splitString(data);
+        synchronized(list) {
+            for (int i = parts.size() - 1; i >= 0; i--) {
+                list.add(0, parts.get(i));
+            }
+        }
+    }
+
+    // Шаг пузырьковой сортировки для ArrayList
+    @Override
+    public boolean bubbleSortStep() throws InterruptedException {
+        synchronized(list) {
+            boolean swapped = false;
+
+            for (int i = 0; i < list.size() - 1; i++) {
+                // Имитация задержки внутри шага
+                if (pairDelayMillis > 0) {
+                    Thread.sleep(pairDelayMillis);
+                }
+
+                compared.increment();
+                if (list.get(i).compareTo(list.get(i + 1)) > 0) {
+                    // Обмен элементами (в ArrayList меняем содержимое, а не ссылки)
+                    Collections.swap(list, i, i + 1);
+                    swapped = true;
+                }
+            }
+            return swapped;
+        }
+    }
+
+    @Override
+    public List<String> toList() {
+        synchronized(list) {
+            return new ArrayList<>(list);
+        }
+    }
+
+    @Override
+    public long comparedPairs() {
+        return compared.sum();
+    }
+
+    @Override
+    public int size() {
+        return list.size();
+    }
+}
@@ -0,0 +1,201 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.util.concurrent.atomic.LongAdder;
+
+// Односвязный список без блокировок. Ссылка на следующий узел - AtomicMarkableReference, метка означает,
+// что узел заморожен: его next больше никто не меняет.
+//
+// Вставка в голову - CAS на head.next. Перестановка соседей a, b с предыдущим p и следующим n:
+//   1) заморозить a (метка на a.next = b), потом b (метка на b.next = n);
+//   2) одним CAS заменить p.next = a на копии b' -> a' -> n.
+// Если на каком-то шаге CAS не прошёл, метки снимаются и пара проверяется заново; замороженную пару
+// другие потоки не ждут, а пропускают до следующего прохода. Старые a и b остаются
+// замороженными навсегда, поэтому читатель, который стоял на них, дойдёт до n по старым ссылкам.
+// Перестановки не меняют позиции остальных узлов, так что toList никогда не ждёт и каждый элемент
+// видит ровно один раз, хотя разные части снимка могут относиться к разным моментам.
+class LockFreeLinkedList implements SortableList, Iterable<String> {
+    // Заглушка, её next - первый узел; конец списка - null
+    private final LockFreeNode head = new LockFreeNode(null, null);
+    private final AtomicInteger size = new AtomicInteger(0);
+    // Неудачные CAS при вставке и перестановке
+    private final LongAdder retries = new LongAdder();
+    // Имитация задержки на каждую пару, как в CustomLinkedList
+    private final long pairDelayMillis;
+    // Сравнённые пары; пропущенные замороженные пары сюда не входят
+    private final LongAdder compared = new LongAdder();
+
+    public LockFreeLinkedList() {
+        this(10);
+    }
+
+    public LockFreeLinkedList(long pairDelayMillis) {
+        this.pairDelayMillis = pairDelayMillis;
+    }
+
+    @Override
+    public void addFirst(String data) {
+        if (data == null) return;
+
+        List<String> parts = splitString(data);
+        if (parts.isEmpty()) return;
+
+        // Цепочка частей собирается заранее и публикуется одним CAS
+        LockFreeNode last = new LockFreeNode(parts.get(parts.size() - 1), null);
+        LockFreeNode first = last;
+        for (int i = parts.size() - 2; i >= 0; i--) {
+            first = new LockFreeNode(parts.get(i), first);
+        }
+
+        while (true) {
+            LockFreeNode oldFirst = head.next.getReference();
+            last.next.set(oldFirst, false);
+            if (head.next.compareAndSet(oldFirst, first, false, false)) {
+                break;
+            }
+            retries.increment();
+        }
+        // Элементы становятся видны в toList чуть раньше, чем в size
+        size.addAndGet(parts.size());
+    }
+
+    // Разбивка строки на части по 80 символов
+    private List<String> splitString(String s) {
+        List<String> parts = new ArrayList<>();
+        int index = 0;
+        while (index < s.length()) {
+            int end = Math.min(index + 80, s.length());
+            parts.add(s.substring(index, end));
+            index = end;
+        }
+        return parts;
+    }
+
+    @Override
+    public boolean bubbleSortStep() throws InterruptedException {
+        boolean swapped = false;
+        boolean[] marked = new boolean[1];
+        LockFreeNode prev = head;
+
+        while (true) {
+            LockFreeNode first = prev.next.get(marked);
+            if (first == null) {
+                return swapped;
+            }
+            if (marked[0]) {
+                // prev заморожен другим потоком - от него переставлять нельзя, идём дальше
+                prev = first;
+                continue;
+            }
+            LockFreeNode second = first.next.get(marked);
+            if (second == null) {
+                return swapped;
+            }
+            if (marked[0] || second.next.isMarked()) {
+                // Пару сейчас переставляет другой поток - не ждём его, сравним на следующем проходе
+                prev = first;
+                continue;
+            }
+
+            // Имитация задержки
+            if (pairDelayMillis > 0) {
+                Thread.sleep(pairDelayMillis);
+            }
+
+            compared.increment();
+            if (first.data.compareTo(second.data) > 0) {
+                LockFreeNode moved = swapNodes(prev, first, second);
+                if (moved == null) {
+                    // Пару изменил или заморозил другой поток - перечитываем её от prev
+                    retries.increment();
+                    continue;
+                }
+                swapped = true;
+                // Порядок стал prev, b', a': большее значение идёт дальше
+                prev = moved;
+            } else {
+                prev = first;
+            }
+        }
+    }
+
+    // Возвращает копию b, вставшую на место a, или null, если заморозить пару не удалось
+    private LockFreeNode swapNodes(LockFreeNode prev, LockFreeNode a, LockFreeNode b) {
+        if (!a.next.compareAndSet(b, b, false, true)) {
+            return null;
+        }
+        boolean[] marked = new boolean[1];
+        LockFreeNode bNext = b.next.get(marked);
+        if (marked[0] || !b.next.compareAndSet(bNext, bNext, false, true)) {
+            a.next.set(b, false);
+            return null;
+        }
+
+        LockFreeNode movedA = new LockFreeNode(a.data, bNext);
+        LockFreeNode movedB = new LockFreeNode(b.data, movedA);
+        if (prev.next.compareAndSet(a, movedB, false, false)) {
+            return movedB;
+        }
+
+        // prev заморожен или перед a вставили узел - снимаем метки в обратном порядке
+        b.next.set(bNext, false);
+        a.next.set(b, false);
+        return null;
+    }
+
+    @Override
+    public List<String> toList() {
+        List<String> result = new ArrayList<>();
+        for (LockFreeNode current = head.next.getReference(); current != null;
+             current = current.next.getReference()) {
+            result.add(current.data);
+        }
+        return result;
+    }
+
+    // Проверка, что в списке не осталось замороженных узлов и размер совпадает.
+    // Вызывать, когда список никто не меняет
+    void checkLinks() {
+        int count = 0;
+        boolean[] marked = new boolean[1];
+        for (LockFreeNode current = head.next.get(marked); current != null; current = current.next.get(marked)) {
+            if (marked[0]) {
+                throw new IllegalStateException("Frozen node after " + count + " nodes");
+            }
+            count++;
+        }
+        if (marked[0] || count != size.get()) {
+            throw new IllegalStateException("List has " + count + " nodes, size is " + size.get());
+        }
+    }
+
+    @Override
+    public long comparedPairs() {
+        return compared.sum();
+    }
+
+    public long retryCount() {
+        return retries.sum();
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return toList().iterator();
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    // Узел с неизменяемыми данными: при перестановке создаются новые узлы
+    private static final class LockFreeNode {
+        final String data;
+        final AtomicMarkableReference<LockFreeNode> next;
+
+        LockFreeNode(String data, LockFreeNode next) {
+            this.data = data;
+            this.next = new AtomicMarkableReference<>(next, false);
+        }
+    }
+}
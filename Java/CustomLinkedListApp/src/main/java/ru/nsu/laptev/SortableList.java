@@ -0,0 +1,33 @@
+import java.util.List;
+
+// Общий контракт списков, которые сортируют потоки SortingTask: вставка в голову,
+// один проход пузырьковой сортировки, снимок содержимого и размер
+interface SortableList {
+    // Строка разбивается на части по 80 символов, части вставляются в голову в исходном порядке
+    void addFirst(String data);
+
+    // Возвращает true, если за проход была хотя бы одна перестановка
+    boolean bubbleSortStep() throws InterruptedException;
+
+    List<String> toList();
+
+    int size();
+
+    // Сколько пар соседей сравнено всеми проходами с создания списка.
+    // Пары, которые проход пропустил, не считаются, поэтому это не size() - 1 на проход
+    long comparedPairs();
+
+    // Реализация по имени: global - CustomLinkedList с общей блокировкой,
+    // library - синхронизированный ArrayList, как в SortingListLibrary,
+    // hand-over-hand - HandOverHandLinkedList с блокировкой на каждом узле,
+    // lock-free - LockFreeLinkedList на CAS без блокировок
+    static SortableList create(String kind, long pairDelayMillis) {
+        return switch (kind) {
+            case "global" -> new CustomLinkedList(pairDelayMillis);
+            case "library" -> new LibrarySortableList(pairDelayMillis);
+            case "hand-over-hand" -> new HandOverHandLinkedList(pairDelayMillis);
+            case "lock-free" -> new LockFreeLinkedList(pairDelayMillis);
+            default -> throw new IllegalArgumentException("Unknown list kind: " + kind);
+        };
+    }
+}
@@ -0,0 +1,140 @@
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Сравнение пропускной способности списков: N потоков сортировки непрерывно делают проходы по списку
+// из --size случайных строк, с задержкой --delay-ms на каждую пару, как в интерактивной программе.
+// Один поток вставки раз в 20 мс вызывает addFirst и замеряет, сколько ждёт.
+// С общей блокировкой (global, library) проходы идут по очереди, с блокировкой на узле - конвейером
+// друг за другом, без блокировок (lock-free) - независимо, мешая друг другу только на одной паре.
+// Пары - те, что списки действительно сравнили (comparedPairs): lock-free пропускает замороженные пары,
+// поэтому его проход сравнивает меньше size() - 1 пар.
+// Запуск: java SortingListBenchmark [опции]
+public class SortingListBenchmark {
+    private static final String USAGE = """
+            Использование: java SortingListBenchmark [опции]
+            Опции:
+              --lists=LIST          списки через запятую
+                                    (по умолчанию global,library,hand-over-hand,lock-free)
+              --threads=LIST        числа потоков сортировки (по умолчанию 1,2,4,8,16,32,64)
+              --size=N              начальный размер списка (по умолчанию 100)
+              --delay-ms=N          задержка на пару (по умолчанию 1)
+              --seconds=N           длительность замера (по умолчанию 3)""";
+
+    private static final long INSERT_PERIOD_MILLIS = 20;
+
+    // retries - неудачные CAS у lock-free, у остальных -1
+    record Result(String list, int threads, long passes, long pairs, double seconds,
+                  double insertP50Ms, double insertMaxMs, long retries) {}
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        try {
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (!arg.startsWith("--") || eq < 0) {
+                    throw new IllegalArgumentException("неизвестный аргумент " + arg);
+                }
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Ошибка: " + e.getMessage());
+            System.out.println(USAGE);
+            System.exit(1);
+            return;
+        }
+
+        int size = Integer.parseInt(options.getOrDefault("size", "100"));
+        long delayMillis = Long.parseLong(options.getOrDefault("delay-ms", "1"));
+        double seconds = Double.parseDouble(options.getOrDefault("seconds", "3"));
+
+        List<Result> results = new ArrayList<>();
+        for (String list : options.getOrDefault("lists", "global,library,hand-over-hand,lock-free").split(",")) {
+            for (String threads : options.getOrDefault("threads", "1,2,4,8,16,32,64").split(",")) {
+                Result result = run(list, Integer.parseInt(threads), size, delayMillis, seconds);
+                System.out.printf("%s, потоков %d: %.0f пар/с%n", list, result.threads(),
+                        result.pairs() / result.seconds());
+                results.add(result);
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-16s %8s %10s %12s %14s %14s %12s%n", "список", "потоков", "проходов/с", "пар/с",
+                "addFirst p50, мс", "addFirst max, мс", "повторов CAS");
+        for (Result r : results) {
+            System.out.printf("%-16s %8d %10.1f %12.0f %14.2f %14.2f %12s%n", r.list(), r.threads(),
+                    r.passes() / r.seconds(), r.pairs() / r.seconds(), r.insertP50Ms(), r.insertMaxMs(),
+                    r.retries() < 0 ? "-" : String.valueOf(r.retries()));
+        }
+    }
+
+    private static Result run(String kind, int threads, int size, long delayMillis, double seconds)
+            throws InterruptedException {
+        SortableList list = SortableList.create(kind, delayMillis);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < size; i++) {
+            list.addFirst(randomString(random));
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong passes = new AtomicLong();
+        List<Thread> sorters = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread sorter = new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        list.bubbleSortStep();
+                        passes.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "SortingThread-" + i);
+            sorters.add(sorter);
+        }
+
+        long pairsBefore = list.comparedPairs();
+        long start = System.nanoTime();
+        for (Thread sorter : sorters) {
+            sorter.start();
+        }
+
+        // Вставки идут в этом потоке
+        List<Long> insertNanos = new ArrayList<>();
+        long deadline = start + (long) (seconds * 1e9);
+        while (System.nanoTime() < deadline) {
+            String data = randomString(random);
+            long insertStart = System.nanoTime();
+            list.addFirst(data);
+            insertNanos.add(System.nanoTime() - insertStart);
+            Thread.sleep(INSERT_PERIOD_MILLIS);
+        }
+
+        // Начатые проходы не ждём: проходы считаем только завершённые к концу замера,
+        // пары - все сравнённые к этому моменту
+        long passCount = passes.get();
+        long pairCount = list.comparedPairs() - pairsBefore;
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        running.set(false);
+        for (Thread sorter : sorters) {
+            sorter.interrupt();
+            sorter.join();
+        }
+
+        Collections.sort(insertNanos);
+        long retries = list instanceof LockFreeLinkedList lockFree ? lockFree.retryCount() : -1;
+        return new Result(kind, threads, passCount, pairCount, elapsed,
+                insertNanos.get(insertNanos.size() / 2) / 1e6, insertNanos.get(insertNanos.size() - 1) / 1e6,
+                retries);
+    }
+
+    private static String randomString(ThreadLocalRandom random) {
+        StringBuilder result = new StringBuilder();
+        int length = 1 + random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            result.append((char) ('a' + random.nextInt(26)));
+        }
+        return result.toString();
+    }
+}
@@ -2,146 +2,20 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
-// Узел двусвязного списка
-class Node {
-    String data;
-    Node next;
-    Node prev;
-
-    public Node(String data) {
-        this.data = data;
-    }
-}
-
-// Кастомный двусвязный список с синхронизацией
-class CustomLinkedList implements Iterable<String> {
-    private Node head;
-    private Node tail;
-    private final Object lock = new Object();
-    private final AtomicInteger size = new AtomicInteger(0);
-
-    public void addFirst(String data) {
-        if (data == null) return;
-
-        List<String> parts = splitString(data);
-
-        synchronized(lock) {
-            for (int i = parts.size() - 1; i >= 0; i--) {
-                String part = parts.get(i);
-                Node newNode = new Node(part);
-
-                if (head == null) {
-                    head = tail = newNode;
-                } else {
-                    newNode.next = head;
-                    head.prev = newNode;
-                    head = newNode;
-                }
-                size.incrementAndGet();
-            }
-        }
-    }
-
-    // Разбивка строки на части по 80 символов
-    private List<String> splitString(String s) {
-        List<String> parts = new ArrayList<>();
-        int index = 0;
-        while (index < s.length()) {
-            int end = Math.min(index + 80, s.length());
-            parts.add(s.substring(index, end));
-            index = end;
-        }
-        return parts;
-    }
-
-    public boolean bubbleSortStep() throws InterruptedException {
-        synchronized(lock) {
-            if (head == null || head.next == null) {
-                return false;
-            }
-
-            boolean swapped = false;
-            Node current = head;
-
-            while (current != null && current.next != null) {
-                // Захватываем узлы в порядке от головы к хвосту (для предотвращения deadlock)
-                Node first = current;
-                Node second = current.next;
-
-                // Имитация задержки
-                Thread.sleep(10);
-
-                if (first.data.compareTo(second.data) > 0) {
-                    swapNodes(first, second);
-                    swapped = true;
-
-                    // Если поменяли head, обновляем указатель
-                    if (first == head) {
-                        head = second;
-                    }
-                    if (second == tail) {
-                        tail = first;
-                    }
-                }
-                current = current.next;
-            }
-            return swapped;
-        }
-    }
-
-    private void swapNodes(Node a, Node b) {
-        if (a.next != b) {
-            throw new IllegalArgumentException("Nodes must be adjacent");
-        }
-
-        Node aPrev = a.prev;
-        Node bNext = b.next;
-
-        if (aPrev != null) {
-            aPrev.next = b;
-        }
-        if (bNext != null) {
-            bNext.prev = a;
-        }
-
-        // Обновляем ссылки между a и b
-        a.next = bNext;
-        a.prev = b;
-        b.next = a;
-        b.prev = aPrev;
-    }
-
-    //для вывода
-    public List<String> toList() {
-        synchronized(lock) {
-            List<String> result = new ArrayList<>();
-            Node current = head;
-            while (current != null) {
-                result.add(current.data);
-                current = current.next;
-            }
-            return result;
-        }
-    }
-
-    @Override
-    public Iterator<String> iterator() {
-        return toList().iterator();
-    }
-
-    public int size() {
-        return size.get();
-    }
-}
-
 // Главный класс с собственной реализацией списка
 public class SortingListCustom {
-    private static CustomLinkedList list = new CustomLinkedList();
+    private static SortableList list = new CustomLinkedList();
     private static final int THREAD_COUNT = 3;
     private static List<Thread> sortingThreads = new ArrayList<>();
     private static final AtomicInteger totalSteps = new AtomicInteger(0);
 
     public static void main(String[] args) {
+        // --hand-over-hand - список с блокировкой на каждом узле, --lock-free - список без блокировок
+        if (args.length > 0 && args[0].equals("--hand-over-hand")) {
+            list = new HandOverHandLinkedList();
+        } else if (args.length > 0 && args[0].equals("--lock-free")) {
+            list = new LockFreeLinkedList();
+        }
         System.out.println("=== Программа с собственным списком ===");
         System.out.println("Вводите строки (пустая строка для вывода, 'exit' для выхода):");
 
@@ -182,11 +56,11 @@ public class SortingListCustom {
 
 // Задача для потоков сортировки
 class SortingTask implements Runnable {
-    private final CustomLinkedList list;
+    private final SortableList list;
     private final AtomicInteger totalSteps;
     private int localSteps = 0;
 
-    public SortingTask(CustomLinkedList list, AtomicInteger totalSteps) {
+    public SortingTask(SortableList list, AtomicInteger totalSteps) {
         this.list = list;
         this.totalSteps = totalSteps;
     }
@@ -54,7 +54,7 @@ public class SortingListLibrary {
     }
 
     // Разбивка строки на части по 80 символов
-    private static List<String> splitString(String s) {
+    static List<String> splitString(String s) {
         List<String> parts = new ArrayList<>();
         int index = 0;
         while (index < s.length()) {
@@ -68,12 +68,12 @@ public class SortingListLibrary {
 
 // Задача сортировки для библиотечного списка
 class LibrarySortingTask implements Runnable {
-    private final List<String> list;
+    private final LibrarySortableList list;
     private final AtomicInteger totalSteps;
     private int localSteps = 0;
 
     public LibrarySortingTask(List<String> list, AtomicInteger totalSteps) {
-        this.list = list;
+        this.list = new LibrarySortableList(list, 10);
         this.totalSteps = totalSteps;
     }
 
@@ -81,7 +81,7 @@ class LibrarySortingTask implements Runnable {
     public void run() {
         while (true) {
             try {
-                boolean swapped = bubbleSortStep();
+                boolean swapped = list.bubbleSortStep();
                 localSteps++;
                 totalSteps.incrementAndGet();
 
@@ -98,23 +98,4 @@ class LibrarySortingTask implements Runnable {
             }
         }
     }
-
-    // Шаг пузырьковой сортировки для ArrayList
-    private boolean bubbleSortStep() throws InterruptedException {
-        synchronized(list) {
-            boolean swapped = false;
-
-            for (int i = 0; i < list.size() - 1; i++) {
-                // Имитация задержки внутри шага
-                Thread.sleep(10);
-
-                if (list.get(i).compareTo(list.get(i + 1)) > 0) {
-                    // Обмен элементами (в ArrayList меняем содержимое, а не ссылки)
-                    Collections.swap(list, i, i + 1);
-                    swapped = true;
-                }
-            }
-            return swapped;
-        }
-    }
 }
@@ -0,0 +1,152 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Нагрузочная проверка списка: потоки сортировки без задержек, потоки вставки и читатели работают одновременно.
+// Читатели проверяют, что снимок не меньше размера до чтения и не больше размера после
+// (у lock-free вставка видна в снимке чуть раньше, чем в size, поэтому допускаются вставки в процессе).
+// Потом все останавливаются, список досортировывается в одном потоке и проверяется:
+// те же элементы, что были вставлены, порядок по возрастанию, связи в обе стороны.
+// Запуск: java SortingListStressTest [список] [потоков сортировки] [секунд]
+//         список - global, library, hand-over-hand (по умолчанию) или lock-free, по умолчанию 8 потоков и 5 секунд
+public class SortingListStressTest {
+    private static final int WRITERS = 2;
+    private static final int READERS = 2;
+    // Дальше вставки прекращаются, иначе досортировка в конце шла бы слишком долго
+    private static final int MAX_ELEMENTS = 3000;
+    // Строка до 200 символов - не больше трёх частей
+    private static final int MAX_PARTS = 3;
+
+    public static void main(String[] args) throws Exception {
+        String kind = args.length > 0 ? args[0] : "hand-over-hand";
+        int sorters = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        SortableList list = SortableList.create(kind, 0);
+        Queue<String> added = new ConcurrentLinkedQueue<>();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong passes = new AtomicLong();
+        AtomicLong snapshots = new AtomicLong();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        int inFlight = list instanceof LockFreeLinkedList ? WRITERS * MAX_PARTS : 0;
+
+        System.out.printf("Список %s: %d потоков сортировки, %d вставки, %d чтения, %d с%n",
+                kind, sorters, WRITERS, READERS, seconds);
+
+        for (int i = 0; i < sorters; i++) {
+            threads.add(start("Sorter-" + i, errors, () -> {
+                while (running.get()) {
+                    list.bubbleSortStep();
+                    passes.incrementAndGet();
+                }
+            }));
+        }
+        for (int i = 0; i < WRITERS; i++) {
+            threads.add(start("Writer-" + i, errors, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get() && list.size() < MAX_ELEMENTS) {
+                    // Иногда длиннее 80 символов, чтобы строка разбивалась на части
+                    String data = randomString(random, random.nextInt(10) == 0 ? 200 : 12);
+                    list.addFirst(data);
+                    for (int start = 0; start < data.length(); start += 80) {
+                        added.add(data.substring(start, Math.min(start + 80, data.length())));
+                    }
+                    Thread.sleep(1);
+                }
+            }));
+        }
+        for (int i = 0; i < READERS; i++) {
+            threads.add(start("Reader-" + i, errors, () -> {
+                while (running.get()) {
+                    int before = list.size();
+                    int snapshot = list.toList().size();
+                    int after = list.size();
+                    if (snapshot < before || snapshot > after + inFlight) {
+                        throw new IllegalStateException("Snapshot of " + snapshot
+                                + " elements, size was " + before + " before and " + after + " after");
+                    }
+                    snapshots.incrementAndGet();
+                }
+            }));
+        }
+
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.printf("Проходов сортировки: %d, снимков: %d, элементов: %d%n",
+                passes.get(), snapshots.get(), list.size());
+
+        // Досортировка в одном потоке
+        while (list.bubbleSortStep()) {
+            passes.incrementAndGet();
+        }
+
+        List<String> actual = list.toList();
+        List<String> expected = new ArrayList<>(added);
+        Collections.sort(expected);
+        if (!actual.equals(expected)) {
+            List<String> sortedActual = new ArrayList<>(actual);
+            Collections.sort(sortedActual);
+            errors.add(new IllegalStateException(sortedActual.equals(expected)
+                    ? "List is not sorted" : "List has " + actual.size() + " elements, "
+                    + expected.size() + " were added, contents differ"));
+        }
+        if (list.size() != expected.size()) {
+            errors.add(new IllegalStateException("size() is " + list.size() + ", expected " + expected.size()));
+        }
+        if (list instanceof HandOverHandLinkedList handOverHand) {
+            try {
+                handOverHand.checkLinks();
+            } catch (IllegalStateException e) {
+                errors.add(e);
+            }
+        }
+        if (list instanceof LockFreeLinkedList lockFree) {
+            try {
+                lockFree.checkLinks();
+            } catch (IllegalStateException e) {
+                errors.add(e);
+            }
+            System.out.println("Повторов CAS: " + lockFree.retryCount());
+        }
+
+        if (errors.isEmpty()) {
+            System.out.println("Проверка пройдена");
+        } else {
+            for (Throwable error : errors) {
+                System.out.println("Ошибка: " + error);
+            }
+            System.exit(1);
+        }
+    }
+
+    private interface Body {
+        void run() throws Exception;
+    }
+
+    private static Thread start(String name, List<Throwable> errors, Body body) {
+        Thread thread = new Thread(() -> {
+            try {
+                body.run();
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        }, name);
+        thread.start();
+        return thread;
+    }
+
+    private static String randomString(ThreadLocalRandom random, int maxLength) {
+        StringBuilder result = new StringBuilder();
+        int length = 1 + random.nextInt(maxLength);
+        for (int i = 0; i < length; i++) {
+            result.append((char) ('a' + random.nextInt(26)));
+        }
+        return result.toString();
+    }
+}
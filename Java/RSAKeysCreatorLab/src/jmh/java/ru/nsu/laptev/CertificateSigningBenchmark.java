@@ -0,0 +1,85 @@
+package ru.nsu.laptev;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+// Подпись сертификатов: новые builder/converter/SecureRandom на каждый сертификат против переиспользуемого контекста.
+// main() прогоняет оба варианта на 1, 2, 4 ... потоках вплоть до числа ядер.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class CertificateSigningBenchmark {
+    private static final X500Name ISSUER = new X500Name("CN=BenchCA");
+
+    @State(Scope.Benchmark)
+    public static class Keys {
+        KeyPair ca;
+        KeyPair subject;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+            keyGen.initialize(4096);
+            ca = keyGen.generateKeyPair();
+            keyGen.initialize(2048);
+            subject = keyGen.generateKeyPair();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+        CertificateSigner signer;
+
+        @Setup(Level.Trial)
+        public void setUp(Keys keys) throws Exception {
+            signer = new CertificateSigner(ISSUER, keys.ca.getPrivate(), "SHA256WithRSA");
+        }
+    }
+
+    // Как было в generateCertificate: всё создаётся заново для каждого сертификата
+    @Benchmark
+    public X509Certificate freshBuilders(Keys keys) throws Exception {
+        Date notBefore = new Date();
+        JcaX509v3CertificateBuilder certBuilder = new JcaX509v3CertificateBuilder(
+                ISSUER, new BigInteger(64, new SecureRandom()), notBefore,
+                new Date(notBefore.getTime() + 365L * 24 * 60 * 60 * 1000),
+                new X500Name("CN=Bench"), keys.subject.getPublic());
+        return new JcaX509CertificateConverter().getCertificate(
+                certBuilder.build(new JcaContentSignerBuilder("SHA256WithRSA").build(keys.ca.getPrivate())));
+    }
+
+    @Benchmark
+    public X509Certificate reusedSigner(Keys keys, Worker worker) throws Exception {
+        return worker.signer.sign("Bench", keys.subject.getPublic());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            Options options = new OptionsBuilder()
+                    .include(CertificateSigningBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+}
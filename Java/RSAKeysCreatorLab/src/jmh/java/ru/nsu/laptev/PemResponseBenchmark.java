@@ -0,0 +1,75 @@
+package ru.nsu.laptev;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+// Отдача ответа при попадании в кэш: кодирование PEM на каждый запрос против готового буфера
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PemResponseBenchmark {
+    @Param({"2048", "8192"})
+    public int keySize;
+
+    private KeyData keys;
+    private final NullChannel channel = new NullChannel();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(keySize);
+        KeyPair keyPair = keyGen.generateKeyPair();
+
+        Date notBefore = new Date();
+        X509Certificate cert = new JcaX509CertificateConverter().getCertificate(
+                new JcaX509v3CertificateBuilder(new X500Name("CN=Bench"), BigInteger.ONE, notBefore,
+                        new Date(notBefore.getTime() + 86_400_000L), new X500Name("CN=Bench"), keyPair.getPublic())
+                        .build(new JcaContentSignerBuilder("SHA256WithRSA").build(keyPair.getPrivate())));
+        keys = KeyData.of(keyPair, cert);
+    }
+
+    // Как было: PEM собирается заново на каждый запрос
+    @Benchmark
+    public int encodeOnEveryHit() throws Exception {
+        return channel.write(ByteBuffer.wrap(KeyData.encodePem(keys.keyPair(), keys.certificate())));
+    }
+
+    // Как стало: пишется заранее закодированный буфер
+    @Benchmark
+    public int writeCachedPem() {
+        return channel.write(keys.pem());
+    }
+
+    private static final class NullChannel implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer src) {
+            int written = src.remaining();
+            src.position(src.limit());
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
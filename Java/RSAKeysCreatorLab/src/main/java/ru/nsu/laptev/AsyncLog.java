@@ -0,0 +1,66 @@
+package ru.nsu.laptev;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Асинхронный лог: строки складываются в ограниченную очередь и выводятся одним фоновым потоком,
+// так что рабочие потоки не конкурируют за System.out. При переполнении строки отбрасываются.
+// Построчные сообщения о запросах выборочные: пишется только доля sampleRate из них.
+public class AsyncLog {
+    private final double sampleRate;
+    private final BlockingQueue<String> lines;
+    private final LongAdder dropped = new LongAdder();
+
+    public AsyncLog(double sampleRate, int capacity) {
+        this.sampleRate = sampleRate;
+        this.lines = new ArrayBlockingQueue<>(capacity);
+
+        Thread writer = new Thread(this::drain, "async-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void info(String line) {
+        if (!lines.offer(line)) {
+            dropped.increment();
+        }
+    }
+
+    public boolean shouldSample() {
+        return sampleRate >= 1.0 || (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    // Строка собирается только если запрос попал в выборку
+    public void sampled(String prefix, String value) {
+        if (shouldSample()) {
+            info(prefix + value);
+        }
+    }
+
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    private void drain() {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try {
+            while (true) {
+                out.write(lines.take());
+                out.write(System.lineSeparator());
+                // Сбрасываем буфер, когда очередь опустела, а не после каждой строки
+                if (lines.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException | IOException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package ru.nsu.laptev;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletionException;
+
+// Пакетный режим протокола.
+// Клиент начинает соединение с байта MARKER, затем шлёт имена, каждое завершается нулевым байтом;
+// пустое имя (лишний ноль) означает конец пакета. После него клиент может закрыть свою сторону соединения
+// (shutdownOutput) и дочитать ответы; конец потока до пустого имени означает, что клиент ушёл.
+// Сервер отвечает кадрами в порядке готовности ключей: [int длина имени][имя][байт статуса][int длина тела][тело],
+// при STATUS_OK тело - PEM, при STATUS_BUSY - через сколько секунд повторить запрос, иначе текст ошибки.
+// После последнего кадра сервер закрывает соединение.
+// Обычный режим (одно имя без маркера) работает как раньше: закрытие соединения после имени - отказ от ключа.
+final class BatchProtocol {
+    static final int MARKER = 0x01;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+    // Сервер перегружен, тело - "retry-after=<секунды>"
+    static final byte STATUS_BUSY = 2;
+
+    private BatchProtocol() {
+    }
+
+    static ByteBuffer frameHeader(String name, byte status, int bodyLength) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocate(4 + nameBytes.length + 1 + 4)
+                .putInt(nameBytes.length)
+                .put(nameBytes)
+                .put(status)
+                .putInt(bodyLength)
+                .flip();
+    }
+
+    static ByteBuffer[] resultFrame(String name, KeyData keys, Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof ServerBusyException busy) {
+            return errorFrame(name, STATUS_BUSY, "retry-after=" + busy.retryAfterSeconds());
+        }
+        return error == null ? okFrame(name, keys) : errorFrame(name, STATUS_ERROR, error.getMessage());
+    }
+
+    static ByteBuffer[] okFrame(String name, KeyData keys) {
+        ByteBuffer pem = keys.pem();
+        return new ByteBuffer[] {frameHeader(name, STATUS_OK, pem.remaining()), pem};
+    }
+
+    static ByteBuffer[] errorFrame(String name, byte status, String message) {
+        ByteBuffer body = ByteBuffer.wrap(String.valueOf(message).getBytes(StandardCharsets.US_ASCII));
+        return new ByteBuffer[] {frameHeader(name, status, body.remaining()), body};
+    }
+}
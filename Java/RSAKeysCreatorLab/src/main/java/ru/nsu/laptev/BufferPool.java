@@ -0,0 +1,27 @@
+package ru.nsu.laptev;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+// Пул direct-буферов фиксированного размера. Не потокобезопасен: используется только из потока селектора.
+class BufferPool {
+    private final int bufferSize;
+    private final int maxRetained;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    BufferPool(int bufferSize, int maxRetained) {
+        this.bufferSize = bufferSize;
+        this.maxRetained = maxRetained;
+    }
+
+    ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    void release(ByteBuffer buffer) {
+        if (free.size() < maxRetained) {
+            free.push(buffer.clear());
+        }
+    }
+}
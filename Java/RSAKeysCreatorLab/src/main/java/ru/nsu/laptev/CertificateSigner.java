@@ -0,0 +1,51 @@
+package ru.nsu.laptev;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.math.BigInteger;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+// Контекст подписи одного воркера: ContentSigner, конвертер и генератор серийных номеров создаются один раз
+// и переиспользуются для всех сертификатов. Не потокобезопасен, у каждого потока свой экземпляр.
+class CertificateSigner {
+    private static final long VALIDITY_MILLIS = 365L * 24 * 60 * 60 * 1000;
+
+    private final X500Name issuer;
+    private final ContentSigner signer;
+    private final JcaX509CertificateConverter converter = new JcaX509CertificateConverter();
+    private final SecureRandom random = new SecureRandom();
+
+    CertificateSigner(X500Name issuer, PrivateKey caPrivateKey, String signatureAlgorithm)
+            throws OperatorCreationException {
+        this.issuer = issuer;
+        this.signer = new JcaContentSignerBuilder(signatureAlgorithm)
+                .setSecureRandom(random)
+                .build(caPrivateKey);
+    }
+
+    X509Certificate sign(String name, PublicKey publicKey) throws CertificateException {
+        Date notBefore = new Date();
+        Date notAfter = new Date(notBefore.getTime() + VALIDITY_MILLIS);
+
+        JcaX509v3CertificateBuilder certBuilder = new JcaX509v3CertificateBuilder(
+                issuer,
+                new BigInteger(64, random),
+                notBefore,
+                notAfter,
+                new X500Name("CN=" + name),
+                publicKey);
+
+        // build() пишет TBS-структуру в поток подписчика и забирает подпись, после чего он готов к следующему вызову
+        return converter.getCertificate(certBuilder.build(signer));
+    }
+}
@@ -0,0 +1,583 @@
+package ru.nsu.laptev;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Кластерный режим: имена делятся между узлами консистентным хешированием (HashRing).
+// Узел выдаёт ключи только для своих имён; запрос чужого имени пересылается владельцу
+// или, с --cluster-redirect, клиенту отвечают MOVED с адресом владельца.
+//
+// Состав кластера - записи о узлах с номером запуска (incarnation) и признаком выхода. Узлы обмениваются
+// составом (MEMBERS) при входе, при штатном выходе и периодически со случайным соседом, так что узлы,
+// вошедшие одновременно через один и тот же seed, всё равно узнают друг о друге. Запись о выходе
+// не отменяется старой записью о том же запуске, поэтому ушедший узел не возвращается в кольцо.
+//
+// После смены состава старый владелец сам передаёт ключи новому (TRANSFER), повторяя попытки до успеха,
+// и сообщает об окончании передачи (HANDOFF_DONE). Новый владелец при промахе спрашивает прежнего (LOOKUP),
+// пока тот не закончил передачу и ещё окно --handoff-window после смены состава - так у имени остаётся один ключ.
+class Cluster {
+    private static final int CONNECT_TIMEOUT_MS = 2_000;
+    private static final int CONTROL_TIMEOUT_MS = 30_000;
+    // Пересланный запрос ждёт генерации на владельце, в том числе RSA-8192 в очереди
+    private static final int FORWARD_TIMEOUT_MS = 600_000;
+    private static final int TRANSFER_BATCH = 256;
+    // Сколько раз пересланный запрос может получить MOVED, пока составы узлов не сошлись
+    private static final int MAX_FORWARD_HOPS = 3;
+    private static final long MAX_RETRY_DELAY_MS = 30_000;
+
+    private final KeyGenerationServer server;
+    private final String self;
+    private final List<String> seeds;
+    private final int virtualNodes;
+    private final boolean redirect;
+    private final long handoffWindowNanos;
+    private final long gossipIntervalMillis;
+
+    private final Object membershipLock = new Object();
+    // Все известные узлы, в том числе вышедшие; под membershipLock
+    private final Map<String, ClusterProtocol.Member> members = new TreeMap<>();
+    // Узлы, чьи ключи после смены состава могли перейти к нам и которые ещё не сообщили об окончании передачи
+    private final Set<String> awaitingHandoff = ConcurrentHashMap.newKeySet();
+    // Состав, по которому узел последний раз закончил передачу нам; под membershipLock
+    private final Map<String, Set<String>> handedOff = new HashMap<>();
+    // Передачи идут по одной, в порядке смены состава
+    private final ExecutorService handoffs = Executors.newSingleThreadExecutor(
+            Thread.ofVirtual().name("cluster-handoff").factory());
+    // Узлы, о недоступности которых уже написали в лог
+    private final Set<String> unreachable = ConcurrentHashMap.newKeySet();
+
+    private volatile HashRing ring;
+    // Кольцо до смены состава - у кого искать ключ, ещё не переданный новому владельцу.
+    // Пока кто-то из прежних владельцев не закончил передачу, не заменяется
+    private volatile HashRing previousRing;
+    private volatile long changedAtNanos;
+    // До конца входа в кластер ключами владели остальные узлы, а не мы
+    private volatile boolean joined;
+
+    @FunctionalInterface
+    private interface Arguments {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    Cluster(KeyGenerationServer server, String self, List<String> seeds, int virtualNodes,
+            boolean redirect, int handoffWindowSeconds, int gossipIntervalSeconds) {
+        this.server = server;
+        this.self = self;
+        this.seeds = seeds;
+        this.virtualNodes = virtualNodes;
+        this.redirect = redirect;
+        this.handoffWindowNanos = TimeUnit.SECONDS.toNanos(handoffWindowSeconds);
+        this.gossipIntervalMillis = TimeUnit.SECONDS.toMillis(gossipIntervalSeconds);
+        this.members.put(self, new ClusterProtocol.Member(System.currentTimeMillis(), true));
+        this.ring = new HashRing(Set.of(self), virtualNodes);
+    }
+
+    String self() {
+        return self;
+    }
+
+    boolean redirects() {
+        return redirect;
+    }
+
+    int size() {
+        return ring.nodes().size();
+    }
+
+    // Пока узел входит в кластер, он не знает, какие имена его и у кого ключи
+    boolean joined() {
+        return joined;
+    }
+
+    String ownerOf(String cacheKey) {
+        return ring.ownerOf(cacheKey);
+    }
+
+    // Прежний владелец имени, если имя перешло к нам, а он ещё не закончил передачу
+    // или состав менялся недавно; иначе null
+    String previousOwnerOf(String cacheKey) {
+        HashRing previous = previousRing;
+        if (previous == null) {
+            return null;
+        }
+        String owner = previous.ownerOf(cacheKey);
+        if (owner.equals(self)) {
+            return null;
+        }
+        if (awaitingHandoff.contains(owner) || System.nanoTime() - changedAtNanos <= handoffWindowNanos) {
+            return owner;
+        }
+        return null;
+    }
+
+    // Вызывается, когда сервер уже принимает соединения: другие узлы сразу начнут передавать нам ключи
+    void join() {
+        Set<String> contacted = new HashSet<>(Set.of(self));
+        Deque<String> toContact = new ArrayDeque<>(seeds);
+
+        // Сообщаем о себе всем узлам, о которых узнаём, а не только seed-ам
+        while (!toContact.isEmpty()) {
+            String node = toContact.poll();
+            if (!contacted.add(node)) {
+                continue;
+            }
+            try {
+                exchange(node);
+            } catch (IOException e) {
+                System.err.println("Cluster: node " + node + " is unreachable: " + e.getMessage());
+                continue;
+            }
+            for (String member : ring.nodes()) {
+                if (!contacted.contains(member)) {
+                    toContact.add(member);
+                }
+            }
+        }
+        joined = true;
+        System.out.println("Cluster: joined as " + self + ", nodes " + ring.nodes());
+
+        Thread.ofVirtual().name("cluster-gossip").start(this::gossip);
+    }
+
+    // Штатный выход: сначала сообщаем о нём, потом отдаём свои ключи будущим владельцам.
+    // Пока передача не закончена, новые владельцы спрашивают нас при промахе, поэтому узел
+    // не завершается, пока все ключи не переданы
+    void leave() {
+        HashRing before;
+        HashRing after;
+        synchronized (membershipLock) {
+            before = ring;
+            if (before.nodes().size() < 2) {
+                return;
+            }
+            members.put(self, new ClusterProtocol.Member(members.get(self).incarnation(), false));
+            after = before.without(self);
+            changeRing(before, after);
+        }
+
+        for (String node : after.nodes()) {
+            try {
+                exchange(node);
+            } catch (IOException e) {
+                System.err.println("Cluster: failed to notify " + node + " about leaving: " + e.getMessage());
+            }
+        }
+        try {
+            handoffs.submit(() -> {
+                handOff(before);
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            System.err.println("Cluster: handoff failed: " + e.getCause());
+            return;
+        }
+        System.out.println("Cluster: left, keys handed over to " + ring.nodes());
+    }
+
+    // Имя чужое: запрашиваем ключ у владельца и завершаем им future из нашего кэша
+    void forward(String owner, String request, String client, boolean batch, CompletableFuture<KeyData> future) {
+        server.metrics.clusterForwarded.increment();
+        String cacheKey = KeyProfile.ofRequest(request).cacheKey(KeyProfile.nameOfRequest(request));
+        Thread.startVirtualThread(() -> {
+            try {
+                String target = owner;
+                for (int hop = 1; ; hop++) {
+                    ClusterProtocol.Response response = call(target, ClusterProtocol.GET, FORWARD_TIMEOUT_MS, out -> {
+                        out.writeUTF(request);
+                        out.writeUTF(client);
+                        out.writeBoolean(batch);
+                    });
+                    if (response.status() == BatchProtocol.STATUS_OK) {
+                        future.complete(PersistentKeyStore.decodeRecord(ByteBuffer.wrap(response.body())));
+                    } else if (response.status() == BatchProtocol.STATUS_BUSY) {
+                        future.completeExceptionally(new ServerBusyException(
+                                Integer.parseInt(response.text().substring("retry-after=".length()))));
+                    } else if (response.status() == ClusterProtocol.STATUS_MOVED) {
+                        // Составы у нас и у target расходятся: сверяемся с ним и идём к владельцу по общему составу.
+                        // Если владельцем оказались мы или составы так и не сошлись, клиент повторит запрос
+                        exchange(target);
+                        String next = ring.ownerOf(cacheKey);
+                        if (hop < MAX_FORWARD_HOPS && !next.equals(self)) {
+                            target = next;
+                            continue;
+                        }
+                        future.completeExceptionally(new ServerBusyException(server.retryAfterSeconds()));
+                    } else {
+                        future.completeExceptionally(new IOException(target + ": " + response.text()));
+                    }
+                    return;
+                }
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    // null - у узла точно нет ключа (STATUS_NOT_FOUND). Если узел недоступен, не ответил вовремя
+    // (например, сам ещё генерирует RSA-8192) или ответил ошибкой - IOException: ключ у него может быть,
+    // поэтому генерировать новый нельзя
+    KeyData lookup(String node, String cacheKey) throws IOException {
+        ClusterProtocol.Response response = call(node, ClusterProtocol.LOOKUP, CONTROL_TIMEOUT_MS,
+                out -> out.writeUTF(cacheKey));
+        if (response.status() == ClusterProtocol.STATUS_NOT_FOUND) {
+            return null;
+        }
+        if (response.status() != BatchProtocol.STATUS_OK) {
+            throw new IOException(node + ": " + response.text());
+        }
+        server.metrics.clusterPulled.increment();
+        try {
+            return PersistentKeyStore.decodeRecord(ByteBuffer.wrap(response.body()));
+        } catch (Exception e) {
+            throw new IOException("Bad key record from " + node + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Соединение от другого узла; маркер уже прочитан
+    void handlePeer(InputStream input, OutputStream output) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+
+        byte op = in.readByte();
+        switch (op) {
+            case ClusterProtocol.GET -> {
+                String request = in.readUTF();
+                String client = in.readUTF();
+                boolean batch = in.readBoolean();
+                String cacheKey = KeyProfile.ofRequest(request).cacheKey(KeyProfile.nameOfRequest(request));
+                // Отправитель считает владельцем нас; если по нашему составу это не так, ключ здесь не выдаётся
+                String owner = ring.ownerOf(cacheKey);
+                if (!owner.equals(self)) {
+                    ClusterProtocol.writeResponse(out, ClusterProtocol.STATUS_MOVED, owner);
+                    return;
+                }
+                try {
+                    KeyData keys = server.getOrGenerateKeys(request, client, batch, true).get();
+                    ClusterProtocol.writeResponse(out, BatchProtocol.STATUS_OK,
+                            PersistentKeyStore.encodeRecord(cacheKey, keys));
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof ServerBusyException busy) {
+                        ClusterProtocol.writeResponse(out, BatchProtocol.STATUS_BUSY,
+                                "retry-after=" + busy.retryAfterSeconds());
+                    } else {
+                        ClusterProtocol.writeResponse(out, BatchProtocol.STATUS_ERROR,
+                                String.valueOf(e.getCause().getMessage()));
+                    }
+                } catch (Exception e) {
+                    ClusterProtocol.writeResponse(out, BatchProtocol.STATUS_ERROR, String.valueOf(e.getMessage()));
+                }
+            }
+            case ClusterProtocol.LOOKUP -> {
+                String cacheKey = in.readUTF();
+                byte[] record = null;
+                CompletableFuture<KeyData> local = server.peekLocal(cacheKey);
+                if (local != null) {
+                    try {
+                        record = PersistentKeyStore.encodeRecord(cacheKey, local.get());
+                    } catch (Exception e) {
+                        // генерация не удалась - ключа нет
+                    }
+                }
+                if (record == null) {
+                    ClusterProtocol.writeResponse(out, ClusterProtocol.STATUS_NOT_FOUND, cacheKey);
+                } else {
+                    ClusterProtocol.writeResponse(out, BatchProtocol.STATUS_OK, record);
+                }
+            }
+            case ClusterProtocol.TRANSFER -> {
+                int count = in.readInt();
+                int adopted = 0;
+                for (int i = 0; i < count; i++) {
+                    byte[] record = new byte[in.readInt()];
+                    in.readFully(record);
+                    ByteBuffer buffer = ByteBuffer.wrap(record);
+                    try {
+                        if (server.adopt(PersistentKeyStore.recordName(buffer),
+                                PersistentKeyStore.decodeRecord(buffer))) {
+                            adopted++;
+                        }
+                    } catch (Exception e) {
+                        System.err.println("Cluster: rejected transferred key: " + e.getMessage());
+                    }
+                }
+                server.metrics.clusterTransferredIn.add(adopted);
+                ClusterProtocol.writeResponse(out, BatchProtocol.STATUS_OK, String.valueOf(adopted));
+            }
+            case ClusterProtocol.MEMBERS -> {
+                merge(ClusterProtocol.readMembers(in));
+                ClusterProtocol.writeResponse(out, BatchProtocol.STATUS_OK, encodeMembers());
+            }
+            case ClusterProtocol.HANDOFF_DONE -> {
+                String node = in.readUTF();
+                Set<String> nodes = new TreeSet<>();
+                for (int i = in.readInt(); i > 0; i--) {
+                    nodes.add(in.readUTF());
+                }
+                synchronized (membershipLock) {
+                    handedOff.put(node, nodes);
+                    awaitingHandoff.removeIf(this::handedOff);
+                }
+                ClusterProtocol.writeResponse(out, BatchProtocol.STATUS_OK, "");
+            }
+            default -> ClusterProtocol.writeResponse(out, BatchProtocol.STATUS_ERROR, "Unknown operation " + op);
+        }
+    }
+
+    // Периодическая сверка состава со случайным живым узлом; пока других узлов не знаем - с seed-ами
+    private void gossip() {
+        while (true) {
+            try {
+                Thread.sleep(gossipIntervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            List<String> candidates = new ArrayList<>(ring.nodes());
+            candidates.remove(self);
+            if (candidates.isEmpty()) {
+                candidates.addAll(seeds);
+            }
+            if (candidates.isEmpty()) {
+                continue;
+            }
+            String node = candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+            try {
+                exchange(node);
+                if (unreachable.remove(node)) {
+                    System.out.println("Cluster: node " + node + " is reachable again");
+                }
+            } catch (IOException e) {
+                if (unreachable.add(node)) {
+                    System.err.println("Cluster: node " + node + " is unreachable: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Отправляем узлу свой состав и сливаем с нашим его ответ
+    private void exchange(String node) throws IOException {
+        byte[] view = encodeMembers();
+        ClusterProtocol.Response response = call(node, ClusterProtocol.MEMBERS, CONTROL_TIMEOUT_MS,
+                out -> out.write(view));
+        if (response.status() != BatchProtocol.STATUS_OK) {
+            throw new IOException(node + ": " + response.text());
+        }
+        merge(ClusterProtocol.readMembers(new DataInputStream(new ByteArrayInputStream(response.body()))));
+    }
+
+    private byte[] encodeMembers() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        synchronized (membershipLock) {
+            ClusterProtocol.writeMembers(new DataOutputStream(bytes), members);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void merge(Map<String, ClusterProtocol.Member> remote) {
+        HashRing before;
+        HashRing after;
+        synchronized (membershipLock) {
+            remote.forEach((node, member) -> {
+                ClusterProtocol.Member known = members.get(node);
+                if (!member.supersedes(known)) {
+                    return;
+                }
+                if (node.equals(self)) {
+                    // О себе решаем сами. Более новая запись - след прошлого запуска с тем же адресом:
+                    // перебиваем её, иначе нас сочли бы вышедшими
+                    if (known.alive()) {
+                        members.put(self, new ClusterProtocol.Member(member.incarnation() + 1, true));
+                    }
+                    return;
+                }
+                members.put(node, member);
+            });
+
+            Set<String> alive = new TreeSet<>();
+            members.forEach((node, member) -> {
+                if (member.alive()) {
+                    alive.add(node);
+                }
+            });
+            before = ring;
+            if (alive.isEmpty() || alive.equals(before.nodes())) {
+                return;
+            }
+            after = new HashRing(alive, virtualNodes);
+            changeRing(before, after);
+        }
+        System.out.println("Cluster: nodes " + after.nodes());
+        handoffs.execute(() -> {
+            try {
+                handOff(before);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    // Вызывается под membershipLock
+    private void changeRing(HashRing before, HashRing after) {
+        // До входа в кластер имена, которые теперь наши, принадлежали остальным узлам
+        HashRing previous = before;
+        if (!joined) {
+            previous = after.nodes().size() > 1 ? after.without(self) : null;
+        }
+        // Кольцо, у владельцев которого ещё ждём ключи, не теряем
+        if (awaitingHandoff.isEmpty() || previousRing == null) {
+            previousRing = previous;
+        }
+        changedAtNanos = System.nanoTime();
+        ring = after;
+
+        if (previous != null) {
+            for (String node : previous.nodes()) {
+                if (!node.equals(self)) {
+                    awaitingHandoff.add(node);
+                }
+            }
+        }
+        awaitingHandoff.removeIf(this::handedOff);
+    }
+
+    // Узел закончил передачу по нашему текущему составу или вышел и больше передавать не будет.
+    // Вызывается под membershipLock
+    private boolean handedOff(String node) {
+        Set<String> nodes = handedOff.get(node);
+        return nodes != null && (nodes.equals(ring.nodes()) || !nodes.contains(node));
+    }
+
+    // Передаём ключи, которые принадлежали нам в before, их владельцам по текущему составу.
+    // Неудачные передачи повторяются, пока не пройдут или имя снова не станет нашим; каждому узлу
+    // после его ключей отправляется HANDOFF_DONE, даже если ключей для него не было
+    private void handOff(HashRing before) throws InterruptedException {
+        Set<String> names = new HashSet<>();
+        long delay = 500;
+        while (true) {
+            try {
+                for (String cacheKey : server.localKeyNames()) {
+                    if (before.ownerOf(cacheKey).equals(self)) {
+                        names.add(cacheKey);
+                    }
+                }
+                break;
+            } catch (Exception e) {
+                System.err.println("Cluster: failed to list local keys: " + e.getMessage());
+            }
+            delay = sleepBeforeRetry(delay);
+        }
+
+        Set<String> notified = new HashSet<>();
+        HashRing notifiedRing = null;
+        while (true) {
+            HashRing current = ring;
+            if (current != notifiedRing) {
+                notified.clear();
+                notifiedRing = current;
+            }
+            names.removeIf(cacheKey -> current.ownerOf(cacheKey).equals(self));
+
+            Map<String, List<String>> byOwner = new TreeMap<>();
+            for (String node : current.nodes()) {
+                if (!node.equals(self) && !notified.contains(node)) {
+                    byOwner.put(node, new ArrayList<>());
+                }
+            }
+            for (String cacheKey : names) {
+                List<String> owned = byOwner.get(current.ownerOf(cacheKey));
+                if (owned != null) {
+                    owned.add(cacheKey);
+                }
+            }
+
+            boolean failed = false;
+            for (Map.Entry<String, List<String>> entry : byOwner.entrySet()) {
+                String owner = entry.getKey();
+                try {
+                    transfer(owner, entry.getValue());
+                    entry.getValue().forEach(names::remove);
+                    call(owner, ClusterProtocol.HANDOFF_DONE, CONTROL_TIMEOUT_MS, out -> {
+                        out.writeUTF(self);
+                        out.writeInt(current.nodes().size());
+                        for (String node : current.nodes()) {
+                            out.writeUTF(node);
+                        }
+                    });
+                    notified.add(owner);
+                } catch (IOException e) {
+                    System.err.println("Cluster: transfer to " + owner + " failed, will retry: " + e.getMessage());
+                    failed = true;
+                }
+            }
+
+            if (!failed && ring == current) {
+                return;
+            }
+            if (failed) {
+                delay = sleepBeforeRetry(delay);
+            }
+        }
+    }
+
+    private void transfer(String owner, List<String> names) throws IOException {
+        for (int from = 0; from < names.size(); from += TRANSFER_BATCH) {
+            List<byte[]> records = new ArrayList<>();
+            for (String cacheKey : names.subList(from, Math.min(names.size(), from + TRANSFER_BATCH))) {
+                try {
+                    CompletableFuture<KeyData> local = server.peekLocal(cacheKey);
+                    if (local != null && local.isDone() && !local.isCompletedExceptionally()) {
+                        records.add(PersistentKeyStore.encodeRecord(cacheKey, local.join()));
+                    }
+                } catch (Exception e) {
+                    System.err.println("Cluster: cannot read key " + cacheKey + ": " + e.getMessage());
+                }
+            }
+            ClusterProtocol.Response response = call(owner, ClusterProtocol.TRANSFER, CONTROL_TIMEOUT_MS, out -> {
+                out.writeInt(records.size());
+                for (byte[] record : records) {
+                    out.writeInt(record.length);
+                    out.write(record);
+                }
+            });
+            if (response.status() != BatchProtocol.STATUS_OK) {
+                throw new IOException(owner + ": " + response.text());
+            }
+            server.metrics.clusterTransferredOut.add(records.size());
+        }
+    }
+
+    private static long sleepBeforeRetry(long delay) throws InterruptedException {
+        Thread.sleep(delay);
+        return Math.min(delay * 2, MAX_RETRY_DELAY_MS);
+    }
+
+    private ClusterProtocol.Response call(String node, byte op, int timeoutMillis, Arguments arguments)
+            throws IOException {
+        int colon = node.lastIndexOf(':');
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(node.substring(0, colon),
+                    Integer.parseInt(node.substring(colon + 1))), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(timeoutMillis);
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeByte(ClusterProtocol.MARKER);
+            out.writeByte(op);
+            arguments.write(out);
+            out.flush();
+
+            return ClusterProtocol.readResponse(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+        }
+    }
+}
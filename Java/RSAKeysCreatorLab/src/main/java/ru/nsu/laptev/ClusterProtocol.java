@@ -0,0 +1,86 @@
+package ru.nsu.laptev;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Протокол между узлами кластера, на том же порту, что и клиенты.
+// Соединение начинается с байта MARKER, затем байт операции и её аргументы (строки - в формате writeUTF).
+// Ответ: [байт статуса][int длина тела][тело], статусы общие с пакетным протоколом.
+//   GET      request, client, batch     -> запись хранилища с ключом или STATUS_MOVED с адресом владельца,
+//                                          если по составу этого узла имя ему не принадлежит; дальше не пересылается
+//   LOOKUP   cacheKey                   -> запись хранилища или STATUS_NOT_FOUND; новый ключ не генерируется
+//   TRANSFER int count, count x [int длина][запись]  -> STATUS_OK; передача ключей новому владельцу
+//   MEMBERS  состав                     -> состав ответившего узла после слияния; вход, выход и периодическая сверка
+//   HANDOFF_DONE nodeId, int count, count x nodeId  -> STATUS_OK; nodeId передал все ключи,
+//                                          которые по этому составу принадлежат получателю
+// Состав: int count, count x [nodeId][long incarnation][boolean alive]
+final class ClusterProtocol {
+    static final int MARKER = 0x02;
+
+    static final byte GET = 1;
+    static final byte LOOKUP = 2;
+    static final byte TRANSFER = 3;
+    static final byte MEMBERS = 4;
+    static final byte HANDOFF_DONE = 5;
+
+    static final byte STATUS_NOT_FOUND = 3;
+    static final byte STATUS_MOVED = 4;
+
+    private ClusterProtocol() {
+    }
+
+    record Response(byte status, byte[] body) {
+        String text() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Запись о узле: incarnation - время запуска узла, alive = false - узел вышел штатно.
+    // Из двух записей об одном узле верна та, у которой incarnation больше, при равных - запись о выходе
+    record Member(long incarnation, boolean alive) {
+        boolean supersedes(Member other) {
+            return other == null || incarnation > other.incarnation
+                    || incarnation == other.incarnation && !alive && other.alive;
+        }
+    }
+
+    static void writeResponse(DataOutputStream out, byte status, byte[] body) throws IOException {
+        out.writeByte(status);
+        out.writeInt(body.length);
+        out.write(body);
+        out.flush();
+    }
+
+    static void writeResponse(DataOutputStream out, byte status, String text) throws IOException {
+        writeResponse(out, status, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Response readResponse(DataInputStream in) throws IOException {
+        byte status = in.readByte();
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        return new Response(status, body);
+    }
+
+    static void writeMembers(DataOutputStream out, Map<String, Member> members) throws IOException {
+        out.writeInt(members.size());
+        for (Map.Entry<String, Member> entry : members.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue().incarnation());
+            out.writeBoolean(entry.getValue().alive());
+        }
+    }
+
+    static Map<String, Member> readMembers(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<String, Member> members = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            members.put(in.readUTF(), new Member(in.readLong(), in.readBoolean()));
+        }
+        return members;
+    }
+}
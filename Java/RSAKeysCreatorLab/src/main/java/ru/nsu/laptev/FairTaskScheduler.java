@@ -0,0 +1,131 @@
+package ru.nsu.laptev;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Очередь задач генерации с честным распределением между клиентами.
+// Классы приоритета обслуживаются взвешенным round-robin (smooth WRR, веса в TaskPriority),
+// внутри класса у каждого клиента своя очередь, и клиенты обслуживаются по кругу.
+// При переполнении общей очереди или очереди клиента задача сразу отклоняется.
+public class FairTaskScheduler {
+    public enum TaskPriority {
+        HIGH(4), NORMAL(2), LOW(1);
+
+        final int weight;
+
+        TaskPriority(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private static final class PriorityClass {
+        final Map<String, ArrayDeque<Task>> queues = new HashMap<>();
+        final ArrayDeque<String> clients = new ArrayDeque<>();
+        int currentWeight;
+
+        boolean isEmpty() {
+            return clients.isEmpty();
+        }
+    }
+
+    private final int maxBacklog;
+    private final int maxPerClient;
+    private final int retryAfterSeconds;
+    private final Map<TaskPriority, PriorityClass> classes = new EnumMap<>(TaskPriority.class);
+    private int backlog;
+
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LongAdder rejected = new LongAdder();
+
+    public FairTaskScheduler(int maxBacklog, int maxPerClient, int retryAfterSeconds) {
+        this.maxBacklog = maxBacklog;
+        this.maxPerClient = maxPerClient;
+        this.retryAfterSeconds = retryAfterSeconds;
+        for (TaskPriority priority : TaskPriority.values()) {
+            classes.put(priority, new PriorityClass());
+        }
+    }
+
+    public synchronized void submit(Task task) {
+        PriorityClass priorityClass = classes.get(task.priority());
+        ArrayDeque<Task> queue = priorityClass.queues.get(task.client());
+
+        if (backlog >= maxBacklog || (queue != null && queue.size() >= maxPerClient)) {
+            rejected.increment();
+            throw new ServerBusyException(retryAfterSeconds);
+        }
+
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            priorityClass.queues.put(task.client(), queue);
+            priorityClass.clients.add(task.client());
+        }
+        queue.add(task);
+        backlog++;
+        notify();
+    }
+
+    public synchronized Task take() throws InterruptedException {
+        while (backlog == 0) {
+            wait();
+        }
+
+        Task task = poll(nextClass());
+        backlog--;
+        queueWait.recordSince(task.enqueuedNanos());
+        return task;
+    }
+
+    public synchronized int backlog() {
+        return backlog;
+    }
+
+    public int retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    public LatencyHistogram queueWait() {
+        return queueWait;
+    }
+
+    // Smooth weighted round-robin среди непустых классов
+    private PriorityClass nextClass() {
+        PriorityClass best = null;
+        int totalWeight = 0;
+        for (Map.Entry<TaskPriority, PriorityClass> entry : classes.entrySet()) {
+            PriorityClass priorityClass = entry.getValue();
+            if (priorityClass.isEmpty()) {
+                continue;
+            }
+            priorityClass.currentWeight += entry.getKey().weight;
+            totalWeight += entry.getKey().weight;
+            if (best == null || priorityClass.currentWeight > best.currentWeight) {
+                best = priorityClass;
+            }
+        }
+        best.currentWeight -= totalWeight;
+        return best;
+    }
+
+    private static Task poll(PriorityClass priorityClass) {
+        String client = priorityClass.clients.poll();
+        ArrayDeque<Task> queue = priorityClass.queues.get(client);
+        Task task = queue.poll();
+        if (queue.isEmpty()) {
+            priorityClass.queues.remove(client);
+        } else {
+            priorityClass.clients.add(client);
+        }
+        if (priorityClass.isEmpty()) {
+            priorityClass.currentWeight = 0;
+        }
+        return task;
+    }
+}
@@ -0,0 +1,75 @@
+package ru.nsu.laptev;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Кольцо консистентного хеширования. Каждый узел занимает virtualNodes точек на кольце,
+// имя принадлежит узлу первой точки по часовой стрелке от хеша имени.
+// Кольцо неизменяемо: при входе или выходе узла строится новое, так что читать его можно без блокировок.
+public final class HashRing {
+    private final Set<String> nodes;
+    private final int virtualNodes;
+    private final long[] points;
+    private final String[] owners;
+
+    public HashRing(Set<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Ring needs at least one node");
+        }
+        this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+        this.virtualNodes = virtualNodes;
+
+        record Point(long hash, String node) {}
+        Point[] all = new Point[this.nodes.size() * virtualNodes];
+        int i = 0;
+        for (String node : this.nodes) {
+            for (int v = 0; v < virtualNodes; v++) {
+                all[i++] = new Point(hash(node + "#" + v), node);
+            }
+        }
+        Arrays.sort(all, (a, b) -> Long.compare(a.hash(), b.hash()));
+
+        this.points = new long[all.length];
+        this.owners = new String[all.length];
+        for (i = 0; i < all.length; i++) {
+            points[i] = all[i].hash();
+            owners[i] = all[i].node();
+        }
+    }
+
+    public Set<String> nodes() {
+        return nodes;
+    }
+
+    public String ownerOf(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    public HashRing without(String node) {
+        Set<String> changed = new TreeSet<>(nodes);
+        changed.remove(node);
+        return new HashRing(changed, virtualNodes);
+    }
+
+    // FNV-1a с финальным перемешиванием из MurmurHash3, чтобы близкие строки расходились по кольцу
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,198 @@
+package ru.nsu.laptev;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Ограниченный кэш ключей: сегментированный LRU (probation + protected) с лимитом по числу записей и по байтам.
+// Незавершённые future лежат отдельно и не вытесняются, в сегменты попадают только готовые ключи.
+public class KeyCache {
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final int maxProtectedEntries;
+    private final long maxProtectedBytes;
+
+    private final Object lock = new Object();
+    private final Map<String, CompletableFuture<KeyData>> pending = new HashMap<>();
+    // В LinkedHashMap порядок вставки: первым идёт самый давно использованный ключ
+    private final LinkedHashMap<String, KeyData> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, KeyData> protectedSegment = new LinkedHashMap<>();
+    private long probationBytes;
+    private long protectedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // created = true, если future только что создана и вызывающий должен запустить её загрузку
+    public record Lookup(CompletableFuture<KeyData> future, boolean created) {}
+
+    public KeyCache(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache limits must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.maxProtectedEntries = (int) (maxEntries * PROTECTED_SHARE);
+        this.maxProtectedBytes = (long) (maxBytes * PROTECTED_SHARE);
+    }
+
+    public Lookup lookup(String name, Supplier<? extends CompletableFuture<KeyData>> factory) {
+        CompletableFuture<KeyData> future;
+        synchronized (lock) {
+            future = pending.get(name);
+            if (future != null) {
+                hits.increment();
+                return new Lookup(future, false);
+            }
+
+            KeyData keys = protectedSegment.remove(name);
+            if (keys != null) {
+                protectedSegment.put(name, keys);
+                hits.increment();
+                return new Lookup(CompletableFuture.completedFuture(keys), false);
+            }
+
+            keys = probation.remove(name);
+            if (keys != null) {
+                probationBytes -= keys.weight();
+                promote(name, keys);
+                hits.increment();
+                return new Lookup(CompletableFuture.completedFuture(keys), false);
+            }
+
+            misses.increment();
+            future = factory.get();
+            pending.put(name, future);
+        }
+
+        CompletableFuture<KeyData> created = future;
+        created.whenComplete((keys, error) -> onComplete(name, created, keys, error));
+        return new Lookup(created, true);
+    }
+
+    // Без учёта в статистике и без продвижения в LRU - для запросов других узлов кластера
+    public CompletableFuture<KeyData> peek(String name) {
+        synchronized (lock) {
+            CompletableFuture<KeyData> future = pending.get(name);
+            if (future != null) {
+                return future;
+            }
+            KeyData keys = protectedSegment.get(name);
+            if (keys == null) {
+                keys = probation.get(name);
+            }
+            return keys == null ? null : CompletableFuture.completedFuture(keys);
+        }
+    }
+
+    // Ключ, полученный извне (от другого узла). Уже известный ключ не заменяется,
+    // а ждущая генерация завершается пришедшим ключом. false - у имени уже был другой ключ
+    public boolean offer(String name, KeyData keys) {
+        CompletableFuture<KeyData> future;
+        synchronized (lock) {
+            if (protectedSegment.containsKey(name) || probation.containsKey(name)) {
+                return false;
+            }
+            future = pending.get(name);
+            if (future == null) {
+                probation.put(name, keys);
+                probationBytes += keys.weight();
+                evictIfNeeded();
+                return true;
+            }
+        }
+        return future.complete(keys);
+    }
+
+    // Копия готовых записей, например для передачи ключей другому узлу
+    public Map<String, KeyData> snapshot() {
+        synchronized (lock) {
+            Map<String, KeyData> copy = new HashMap<>(probation);
+            copy.putAll(protectedSegment);
+            return copy;
+        }
+    }
+
+    public int size() {
+        synchronized (lock) {
+            return probation.size() + protectedSegment.size();
+        }
+    }
+
+    public int pendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    public long weightedSize() {
+        synchronized (lock) {
+            return probationBytes + protectedBytes;
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    private void onComplete(String name, CompletableFuture<KeyData> future, KeyData keys, Throwable error) {
+        synchronized (lock) {
+            if (!pending.remove(name, future) || error != null) {
+                return;
+            }
+            probation.put(name, keys);
+            probationBytes += keys.weight();
+            evictIfNeeded();
+        }
+    }
+
+    private void promote(String name, KeyData keys) {
+        protectedSegment.put(name, keys);
+        protectedBytes += keys.weight();
+
+        // Переполненный protected сбрасывает самые старые записи обратно в probation
+        Iterator<Map.Entry<String, KeyData>> oldest = protectedSegment.entrySet().iterator();
+        while (protectedSegment.size() > 1
+                && (protectedSegment.size() > maxProtectedEntries || protectedBytes > maxProtectedBytes)) {
+            Map.Entry<String, KeyData> entry = oldest.next();
+            oldest.remove();
+            protectedBytes -= entry.getValue().weight();
+            probation.put(entry.getKey(), entry.getValue());
+            probationBytes += entry.getValue().weight();
+        }
+    }
+
+    private void evictIfNeeded() {
+        while (size() > maxEntries || probationBytes + protectedBytes > maxBytes) {
+            LinkedHashMap<String, KeyData> segment = probation.isEmpty() ? protectedSegment : probation;
+            if (segment.isEmpty()) {
+                return;
+            }
+
+            Iterator<Map.Entry<String, KeyData>> oldest = segment.entrySet().iterator();
+            KeyData victim = oldest.next().getValue();
+            oldest.remove();
+            if (segment == probation) {
+                probationBytes -= victim.weight();
+            } else {
+                protectedBytes -= victim.weight();
+            }
+            evictions.increment();
+        }
+    }
+}
@@ -1,80 +1,313 @@
 package ru.nsu.laptev;
 
+import com.sun.net.httpserver.HttpServer;
 import org.bouncycastle.asn1.x500.X500Name;
-import org.bouncycastle.cert.X509v3CertificateBuilder;
-import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
-import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
 import org.bouncycastle.openssl.PEMParser;
 import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
-import org.bouncycastle.operator.ContentSigner;
-import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 
 import java.io.*;
-import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.security.*;
 import java.security.cert.X509Certificate;
 import java.util.*;
 import java.util.concurrent.*;
 
 public class KeyGenerationServer {
+    private final ServerConfig config;
     private final int port;
     private final ExecutorService workerPool;
-    private final ConcurrentMap<String, CompletableFuture<KeyData>> cache = new ConcurrentHashMap<>();
-    private final BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+    private final KeyCache cache;
+    private final FairTaskScheduler scheduler;
+    private final Set<String> highPriorityClients;
 
     private final X500Name issuer;
     private final PrivateKey caPrivateKey;
-    private final KeyPairGenerator keyGen;
+    private final Map<KeyProfile, KeyPairPool> pools = new EnumMap<>(KeyProfile.class);
+    private final PersistentKeyStore store;
+    // null - узел работает один; создаётся, когда порт уже открыт
+    private volatile Cluster cluster;
+
+    final ServerMetrics metrics = new ServerMetrics();
+    final AsyncLog log;
 
     public KeyGenerationServer(int port, int threads, String issuerName, PrivateKey caPrivateKey)
-            throws NoSuchAlgorithmException {
-        this.port = port;
-        this.workerPool = Executors.newFixedThreadPool(threads);
-        this.issuer = new X500Name(issuerName);
+            throws GeneralSecurityException, IOException {
+        this(new ServerConfig(port, threads, issuerName, null, Map.of()), caPrivateKey);
+    }
+
+    public KeyGenerationServer(ServerConfig config, PrivateKey caPrivateKey)
+            throws GeneralSecurityException, IOException {
+        this.config = config;
+        this.port = config.port();
+        this.workerPool = Executors.newFixedThreadPool(config.threads());
+        this.issuer = new X500Name(config.issuer());
         this.caPrivateKey = caPrivateKey;
+        this.log = new AsyncLog(Double.parseDouble(config.option("log-sample", "0.01")), 10_000);
+
+        this.scheduler = new FairTaskScheduler(config.intOption("max-backlog", 10_000),
+                config.intOption("max-per-client", 1_000), config.intOption("retry-after", 5));
+        this.highPriorityClients = Set.of(config.option("high-priority-clients", "").split(","));
+
+        this.cache = new KeyCache(config.intOption("cache-entries", 100_000),
+                (long) config.intOption("cache-mb", 512) << 20);
 
-        this.keyGen = KeyPairGenerator.getInstance("RSA");
-        keyGen.initialize(8192);
+        String storeDir = config.option("store", null);
+        this.store = storeDir == null ? null : new PersistentKeyStore(Path.of(storeDir),
+                config.intOption("store-segment-mb", 64) << 20, config.intOption("store-compaction-interval", 300));
+
+        // Генерация ключей вынесена в фоновый пул, воркеры только берут готовую пару и подписывают сертификат.
+        // У каждого профиля свой пул со своими генераторами
+        KeyPair stubPair = config.flag("stub-keys") ? KeyProfile.EC_P256.newGenerator().generateKeyPair() : null;
+        for (String id : config.option("profiles", "rsa-8192,ec-p256,ed25519").split(",")) {
+            KeyProfile profile = KeyProfile.byId(id.trim());
+            if (profile == null) {
+                throw new IllegalArgumentException("Unknown key profile: " + id);
+            }
+            if (stubPair != null) {
+                pools.put(profile, KeyPairPool.stub(profile, stubPair));
+                continue;
+            }
+            KeyPairPool pool = new KeyPairPool(profile,
+                    config.profileIntOption("pool-low", profile, 4), config.profileIntOption("pool-high", profile, 16));
+            pool.start(config.profileIntOption("pool-threads", profile, config.threads()),
+                    config.profileIntOption("pool-priority", profile, Thread.NORM_PRIORITY - 1));
+            pools.put(profile, pool);
+        }
 
         // Запускаем worker threads
-        for (int i = 0; i < threads; i++) {
+        for (int i = 0; i < config.threads(); i++) {
             workerPool.submit(this::worker);
         }
+
+        int statsInterval = config.intOption("stats-interval", 60);
+        if (statsInterval > 0) {
+            startStatsReporter(statsInterval);
+        }
+
+        int metricsPort = config.intOption("metrics-port", 0);
+        if (metricsPort > 0) {
+            startMetricsEndpoint(metricsPort);
+        }
     }
 
     public void start() throws IOException {
+        if (config.flag("nio")) {
+            new NioFrontEnd(this, port, config.intOption("nio-buffer-size", 8192),
+                    config.intOption("nio-pooled-buffers", 1024)).run();
+            return;
+        }
+
         try (ServerSocket serverSocket = new ServerSocket(port)) {
             System.out.println("Server started on port " + port);
+            onListening();
 
             while (true) {
                 Socket clientSocket = serverSocket.accept();
+                metrics.acceptedConnections.increment();
                 Thread.startVirtualThread(() -> handleClient(clientSocket));
             }
         }
     }
 
+    // Порт уже открыт: можно входить в кластер, ключи от других узлов будет кому принять
+    void onListening() {
+        String nodeId = config.option("node-id", null);
+        String peers = config.option("peers", "");
+        if (nodeId == null && peers.isEmpty()) {
+            return;
+        }
+        List<String> seeds = new ArrayList<>();
+        for (String peer : peers.split(",")) {
+            if (!peer.isBlank()) {
+                seeds.add(peer.trim());
+            }
+        }
+        Cluster joining = new Cluster(this, nodeId != null ? nodeId : "127.0.0.1:" + port, seeds,
+                config.intOption("virtual-nodes", 128), config.flag("cluster-redirect"),
+                config.intOption("handoff-window", 300), config.intOption("gossip-interval", 2));
+        this.cluster = joining;
+        Thread.startVirtualThread(joining::join);
+        Runtime.getRuntime().addShutdownHook(new Thread(joining::leave, "cluster-leave"));
+    }
+
+    // Соединение от другого узла кластера; маркер уже прочитан
+    void handlePeer(InputStream input, OutputStream output, Closeable connection) {
+        try (connection) {
+            Cluster cluster = this.cluster;
+            if (cluster == null) {
+                return;
+            }
+            cluster.handlePeer(input, output);
+        } catch (IOException e) {
+            System.err.println("Peer error: " + e.getMessage());
+        }
+    }
+
     private void handleClient(Socket clientSocket) {
         try (clientSocket;
-             InputStream input = clientSocket.getInputStream();
+             InputStream input = new BufferedInputStream(clientSocket.getInputStream());
              OutputStream output = clientSocket.getOutputStream()) {
 
+            String client = clientSocket.getInetAddress().getHostAddress();
+
+            input.mark(1);
+            int marker = input.read();
+            if (marker == BatchProtocol.MARKER) {
+                handleBatch(input, output, client);
+                return;
+            }
+            if (marker == ClusterProtocol.MARKER) {
+                handlePeer(input, output, clientSocket);
+                return;
+            }
+            input.reset();
+
+            long parseStart = System.nanoTime();
             String name = readName(input);
+            metrics.nameParse.recordSince(parseStart);
             if (name == null || name.isEmpty()) return;
 
-            System.out.println("Request for: " + name);
+            metrics.singleRequests.increment();
+            log.sampled("Request for: ", name);
+
+            CompletableFuture<KeyData> future = getOrGenerateKeys(name, client, false);
+
+            // Пока ключ готовится, следим за соединением: клиент, ушедший раньше времени, больше не ждёт ключ.
+            // В обычном режиме конец потока после имени - тоже уход: закрыть только свою сторону
+            // и ждать ответ можно лишь в пакетном режиме, после пустого имени
+            CompletableFuture<Void> disconnected = new CompletableFuture<>();
+            Thread.startVirtualThread(() -> {
+                try {
+                    while (input.read() != -1) {
+                        // лишние байты после имени игнорируем
+                    }
+                } catch (IOException ignored) {
+                }
+                disconnected.complete(null);
+            });
+            CompletableFuture.anyOf(future, disconnected).exceptionally(e -> null).join();
+            if (!future.isDone()) {
+                release(future);
+                log.sampled("Client left before keys were ready: ", name);
+                return;
+            }
 
-            KeyData keys = getOrGenerateKeys(name).get();
+            KeyData keys;
+            try {
+                keys = future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ServerBusyException busy) {
+                    Channels.newChannel(output).write(busy.toResponse());
+                    output.flush();
+                    log.sampled("Busy, rejected: ", name);
+                    return;
+                }
+                if (e.getCause() instanceof KeyMovedException moved) {
+                    Channels.newChannel(output).write(moved.toResponse());
+                    output.flush();
+                    log.sampled("Redirected to " + moved.owner() + ": ", name);
+                    return;
+                }
+                throw e;
+            }
+            long sendStart = System.nanoTime();
             sendResponse(output, keys);
+            metrics.send.recordSince(sendStart);
 
-            System.out.println("Sent keys for: " + name);
+            log.sampled("Sent keys for: ", name);
 
         } catch (Exception e) {
             System.err.println("Client error: " + e.getMessage());
         }
     }
 
+    // Результат одного имени из пакета; name == null означает конец пакета, total - сколько имён было прочитано
+    private record BatchResult(String name, KeyData keys, Throwable error, int total) {}
+
+    // Клиент ушёл, не дождавшись всех ответов
+    private static final BatchResult DISCONNECTED = new BatchResult(null, null, null, -1);
+
+    // Имена читает отдельный виртуальный поток, а этот поток отправляет кадры по мере готовности ключей.
+    // Воркеры при этом никогда не пишут в сокет сами.
+    private void handleBatch(InputStream input, OutputStream output, String client) throws Exception {
+        BlockingQueue<BatchResult> results = new LinkedBlockingQueue<>();
+        // Ещё не отправленные ключи; при обрыве соединения их ожидание снимается
+        // Очередь, а не множество: одно имя может встретиться в пакете несколько раз
+        Queue<CompletableFuture<KeyData>> waiting = new ConcurrentLinkedQueue<>();
+
+        Thread reader = Thread.startVirtualThread(() -> {
+            int total = 0;
+            try {
+                String name;
+                while ((name = readName(input)) != null && !name.isEmpty()) {
+                    String requested = name;
+                    total++;
+                    metrics.batchRequests.increment();
+                    CompletableFuture<KeyData> future = getOrGenerateKeys(requested, client, true);
+                    waiting.add(future);
+                    future.whenComplete((keys, error) -> {
+                        waiting.remove(future);
+                        results.add(new BatchResult(requested, keys, error, 0));
+                    });
+                }
+                if (name == null) {
+                    // Конец потока без пустого имени - клиент ушёл, не закончив пакет
+                    results.add(DISCONNECTED);
+                    return;
+                }
+                // Пустое имя - конец пакета. После него клиент может закрыть свою сторону и ждать ответы
+                results.add(new BatchResult(null, null, null, total));
+                while (input.read() != -1) {
+                    // игнорируем
+                }
+            } catch (IOException e) {
+                // соединение сброшено
+                results.add(DISCONNECTED);
+            }
+        });
+
+        WritableByteChannel channel = Channels.newChannel(output);
+        int sent = 0;
+        int total = -1;
+        try {
+            while (total < 0 || sent < total) {
+                BatchResult result = results.take();
+                if (result == DISCONNECTED) {
+                    if (total < 0 || sent < total) {
+                        log.sampled("Batch client left before keys were ready: ", client);
+                    }
+                    break;
+                }
+                if (result.name() == null) {
+                    total = result.total();
+                    continue;
+                }
+
+                long sendStart = System.nanoTime();
+                ByteBuffer[] frame = BatchProtocol.resultFrame(result.name(), result.keys(), result.error());
+                for (ByteBuffer buffer : frame) {
+                    channel.write(buffer);
+                }
+                output.flush();
+                metrics.send.recordSince(sendStart);
+                sent++;
+            }
+            log.sampled("Sent batch of keys: ", String.valueOf(sent));
+        } finally {
+            reader.interrupt();
+            waiting.forEach(this::release);
+        }
+    }
+
+    // null - соединение закрыто до первого байта имени
     private String readName(InputStream input) throws IOException {
         ByteArrayOutputStream buffer = new ByteArrayOutputStream();
         int b;
@@ -83,63 +316,315 @@ public class KeyGenerationServer {
             buffer.write(b);
             if (buffer.size() > 4096) throw new IOException("Name too long");
         }
+        if (b == -1 && buffer.size() == 0) {
+            return null;
+        }
         return buffer.toString("US-ASCII");
     }
 
-    private CompletableFuture<KeyData> getOrGenerateKeys(String name) {
-        return cache.computeIfAbsent(name, key -> {
-            CompletableFuture<KeyData> future = new CompletableFuture<>();
-            queue.offer(new Task(name, future));
-            return future;
+    // request - имя, возможно с префиксом профиля: "ec-p256:Alice"; client - адрес клиента для честной очереди
+    CompletableFuture<KeyData> getOrGenerateKeys(String request, String client, boolean batch) {
+        return getOrGenerateKeys(request, client, batch, false);
+    }
+
+    // forwarded - запрос переслан другим узлом кластера и обслуживается здесь, без пересылки дальше
+    CompletableFuture<KeyData> getOrGenerateKeys(String request, String client, boolean batch, boolean forwarded) {
+        KeyProfile profile = KeyProfile.ofRequest(request);
+        String name = KeyProfile.nameOfRequest(request);
+        if (!pools.containsKey(profile)) {
+            return CompletableFuture.failedFuture(
+                    new IllegalArgumentException("Key profile is not enabled: " + profile.id()));
+        }
+        if (name.isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Empty name"));
+        }
+
+        String cacheKey = profile.cacheKey(name);
+        Cluster cluster = this.cluster;
+        if (cluster != null && !cluster.joined()) {
+            return CompletableFuture.failedFuture(new ServerBusyException(retryAfterSeconds()));
+        }
+        String owner = cluster == null || forwarded ? null : cluster.ownerOf(cacheKey);
+        if (owner != null && owner.equals(cluster.self())) {
+            owner = null;
+        }
+        // Пакеты всегда пересылаются: перенаправить клиента можно только целиком
+        if (owner != null && cluster.redirects() && !batch) {
+            metrics.clusterRedirected.increment();
+            return CompletableFuture.failedFuture(new KeyMovedException(owner));
+        }
+
+        boolean remote = owner != null;
+        KeyCache.Lookup lookup;
+        while (true) {
+            lookup = cache.lookup(cacheKey, () -> new PendingKeys(remote));
+            if (!(lookup.future() instanceof PendingKeys keys) || keys.acquire()) {
+                break;
+            }
+            // Задачу только что бросили, её future вот-вот уйдёт из кэша
+            Thread.onSpinWait();
+        }
+        if (lookup.created()) {
+            if (owner != null) {
+                cluster.forward(owner, request, client, batch, lookup.future());
+            } else {
+                loadOrGenerate(cacheKey, name, profile, lookup.future(), client, batch);
+            }
+        }
+        return lookup.future();
+    }
+
+    private void loadOrGenerate(String cacheKey, String name, KeyProfile profile, CompletableFuture<KeyData> future,
+                                String client, boolean batch) {
+        // Имя недавно перешло к нам от другого узла - ключ мог ещё не доехать при передаче
+        Cluster cluster = this.cluster;
+        String previousOwner = cluster == null ? null : cluster.previousOwnerOf(cacheKey);
+        if (store == null && previousOwner == null) {
+            submitTask(name, profile, future, client, batch);
+            return;
+        }
+
+        // Чтение с диска (при старте - ещё и ожидание загрузки индекса) и запрос к прежнему владельцу блокируют,
+        // а вызывает нас и поток селектора NIO. Поэтому они идут в виртуальном потоке, селектор только ждёт future
+        Thread.startVirtualThread(() -> {
+            // Вытесненный из памяти ключ сначала ищем на диске и только потом генерируем заново
+            KeyData stored = loadStored(cacheKey);
+            if (stored != null) {
+                future.complete(stored);
+                return;
+            }
+            if (previousOwner != null) {
+                KeyData remote;
+                try {
+                    remote = cluster.lookup(previousOwner, cacheKey);
+                } catch (IOException e) {
+                    // Не знаем, есть ли ключ у прежнего владельца: новый ключ дал бы имени второй. Клиент повторит
+                    System.err.println("Cluster: lookup of " + cacheKey + " at " + previousOwner
+                            + " failed: " + e.getMessage());
+                    future.completeExceptionally(new ServerBusyException(retryAfterSeconds()));
+                    return;
+                }
+                if (remote != null) {
+                    storeQuietly(cacheKey, remote);
+                    future.complete(remote);
+                    return;
+                }
+            }
+            submitTask(name, profile, future, client, batch);
         });
     }
 
+    private void submitTask(String name, KeyProfile profile, CompletableFuture<KeyData> future,
+                            String client, boolean batch) {
+        try {
+            scheduler.submit(new Task(name, profile, future, client, priorityOf(client, batch), System.nanoTime()));
+        } catch (ServerBusyException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    // Ключ в памяти или на диске, без генерации; null - ключа нет.
+    // Незавершённый запрос к другому узлу не считается: тот узел может сам спрашивать ключ у нас
+    CompletableFuture<KeyData> peekLocal(String cacheKey) {
+        CompletableFuture<KeyData> cached = cache.peek(cacheKey);
+        if (cached instanceof PendingKeys pending && pending.forwarded()) {
+            cached = null;
+        }
+        if (cached != null) {
+            return cached;
+        }
+        KeyData stored = loadStored(cacheKey);
+        return stored == null ? null : CompletableFuture.completedFuture(stored);
+    }
+
+    Set<String> localKeyNames() throws Exception {
+        Set<String> names = new HashSet<>(cache.snapshot().keySet());
+        if (store != null) {
+            names.addAll(store.names());
+        }
+        return names;
+    }
+
+    // Ключ, переданный другим узлом. Уже выданный здесь ключ не заменяется
+    boolean adopt(String cacheKey, KeyData keys) throws Exception {
+        if (store != null && store.contains(cacheKey)) {
+            return false;
+        }
+        if (!cache.offer(cacheKey, keys)) {
+            return false;
+        }
+        storeQuietly(cacheKey, keys);
+        return true;
+    }
+
+    private void storeQuietly(String cacheKey, KeyData keys) {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.put(cacheKey, keys);
+        } catch (Exception e) {
+            System.err.println("Key store write error for " + cacheKey + ": " + e.getMessage());
+        }
+    }
+
+    // Через сколько секунд клиенту повторить запрос, который сейчас выполнить нельзя
+    int retryAfterSeconds() {
+        return scheduler.retryAfterSeconds();
+    }
+
+    // Клиент больше не ждёт результат getOrGenerateKeys
+    void release(CompletableFuture<KeyData> future) {
+        if (!future.isDone() && future instanceof PendingKeys keys) {
+            keys.release();
+            metrics.abandonedWaiters.increment();
+        }
+    }
+
+    // Пакетная выдача идёт с низким приоритетом, чтобы не задерживать одиночные запросы
+    private FairTaskScheduler.TaskPriority priorityOf(String client, boolean batch) {
+        if (highPriorityClients.contains(client)) {
+            return FairTaskScheduler.TaskPriority.HIGH;
+        }
+        return batch ? FairTaskScheduler.TaskPriority.LOW : FairTaskScheduler.TaskPriority.NORMAL;
+    }
+
+    private KeyData loadStored(String name) {
+        if (store == null) {
+            return null;
+        }
+        try {
+            return store.get(name);
+        } catch (Exception e) {
+            System.err.println("Key store read error for " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
     private void worker() {
+        // Контексты подписи создаются один раз на воркер и переиспользуются для всех его задач
+        Map<KeyProfile, CertificateSigner> signers = new EnumMap<>(KeyProfile.class);
+        try {
+            for (KeyProfile profile : pools.keySet()) {
+                signers.put(profile, new CertificateSigner(issuer, caPrivateKey,
+                        profile.signatureAlgorithm(caPrivateKey)));
+            }
+        } catch (Exception e) {
+            System.err.println("Worker init error: " + e.getMessage());
+            return;
+        }
+
         while (true) {
             try {
-                Task task = queue.take();
-                processTask(task);
+                Task task = scheduler.take();
+                processTask(task, signers.get(task.profile()));
             } catch (InterruptedException e) {
                 break;
             }
         }
     }
 
-    private void processTask(Task task) {
+    private void processTask(Task task, CertificateSigner signer) {
+        // Ключ уже пришёл от другого узла кластера
+        if (task.future().isDone()) {
+            return;
+        }
+        // Все ждавшие клиенты отключились: не тратим на задачу ни ключ из пула, ни подпись
+        if (task.future() instanceof PendingKeys keys && keys.abandonIfUnwanted()) {
+            metrics.abandonedTasks.increment();
+            metrics.abandonedSavedNanos.add(pools.get(task.profile()).generationTime().mean() + metrics.signing.mean());
+            keys.completeExceptionally(new RequestAbandonedException(task.profile().cacheKey(task.name())));
+            return;
+        }
+
+        long start = System.nanoTime();
         try {
-            KeyPair keyPair = keyGen.generateKeyPair();
-            X509Certificate cert = generateCertificate(task.name(), keyPair);
-            task.future().complete(new KeyData(keyPair, cert));
+            KeyPair keyPair = pools.get(task.profile()).take();
+            long signStart = System.nanoTime();
+            X509Certificate cert = signer.sign(task.name(), keyPair.getPublic());
+            long encodeStart = System.nanoTime();
+            KeyData keys = KeyData.of(keyPair, cert);
+            long encodeEnd = System.nanoTime();
+            metrics.signing.record(encodeStart - signStart);
+            metrics.pemEncoding.record(encodeEnd - encodeStart);
+
+            if (log.shouldSample()) {
+                log.info(String.format("Trace %s: queue=%.1f ms, pool=%.1f ms, sign=%.1f ms, encode=%.1f ms",
+                        task.profile().cacheKey(task.name()), (start - task.enqueuedNanos()) / 1e6,
+                        (signStart - start) / 1e6, (encodeStart - signStart) / 1e6, (encodeEnd - encodeStart) / 1e6));
+            }
+
+            // Сначала сохраняем на диск, чтобы после перезапуска тому же имени не выдали другой ключ
+            if (store != null && !task.future().isDone()) {
+                store.put(task.profile().cacheKey(task.name()), keys);
+            }
+            task.future().complete(keys);
         } catch (Exception e) {
             task.future().completeExceptionally(e);
-            cache.remove(task.name(), task.future());
+        } finally {
+            metrics.workerBusyNanos.add(System.nanoTime() - start);
         }
     }
 
-    private X509Certificate generateCertificate(String name, KeyPair keyPair) throws Exception {
-        X500Name subject = new X500Name("CN=" + name);
-        BigInteger serial = new BigInteger(64, new SecureRandom());
-
-        Date notBefore = new Date();
-        Date notAfter = new Date(notBefore.getTime() + 365L * 24 * 60 * 60 * 1000);
+    private void startStatsReporter(int intervalSeconds) {
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "stats-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
 
-        X509v3CertificateBuilder certBuilder = new JcaX509v3CertificateBuilder(
-                issuer,
-                serial,
-                notBefore,
-                notAfter,
-                subject,
-                keyPair.getPublic());
+        Map<KeyProfile, Long> lastGenerated = new EnumMap<>(KeyProfile.class);
+        reporter.scheduleAtFixedRate(() -> {
+            pools.forEach((profile, pool) -> {
+                long generated = pool.generatedCount();
+                double rate = (double) (generated - lastGenerated.getOrDefault(profile, 0L)) / intervalSeconds;
+                lastGenerated.put(profile, generated);
+                log.info(String.format("Key pool %s: depth=%d, refill=%.2f keys/s, empty stalls=%d",
+                        profile.id(), pool.depth(), rate, pool.stallCount()));
+            });
+            log.info(String.format("Key cache: entries=%d, pending=%d, size=%d KiB, hits=%d, misses=%d, evictions=%d",
+                    cache.size(), cache.pendingCount(), cache.weightedSize() >> 10,
+                    cache.hitCount(), cache.missCount(), cache.evictionCount()));
+            LatencyHistogram wait = scheduler.queueWait();
+            log.info(String.format("Task queue: backlog=%d, rejected=%d, wait p50=%.1f ms, p99=%.1f ms, max=%.1f ms",
+                    scheduler.backlog(), scheduler.rejectedCount(),
+                    wait.percentile(0.5) / 1e6, wait.percentile(0.99) / 1e6, wait.max() / 1e6));
+            if (cluster != null) {
+                log.info(String.format("Cluster: nodes=%d, forwarded=%d, redirected=%d, pulled=%d, transferred in=%d, out=%d",
+                        cluster.size(), metrics.clusterForwarded.sum(), metrics.clusterRedirected.sum(),
+                        metrics.clusterPulled.sum(), metrics.clusterTransferredIn.sum(),
+                        metrics.clusterTransferredOut.sum()));
+            }
+            log.info(String.format("Abandoned: %d clients left early, %d tasks dropped, ~%.1f s of work saved",
+                    metrics.abandonedWaiters.sum(), metrics.abandonedTasks.sum(),
+                    metrics.abandonedSavedNanos.sum() / 1e9));
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
 
-        ContentSigner signer = new JcaContentSignerBuilder("SHA256WithRSA")
-                .build(caPrivateKey);
-        //7
-        return new JcaX509CertificateConverter().getCertificate(certBuilder.build(signer));
+    // Метрики в формате Prometheus на http://127.0.0.1:<port>/metrics
+    private void startMetricsEndpoint(int metricsPort) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), metricsPort), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = metrics.scrape(cache, scheduler, pools, config.threads(), log)
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        http.start();
+        System.out.println("Metrics available on http://127.0.0.1:" + metricsPort + "/metrics");
     }
 
     private void sendResponse(OutputStream output, KeyData keys) throws Exception {
-        String response = keys.toPem();
-        output.write(response.getBytes("US-ASCII"));
+        // Ответ уже закодирован, просто выписываем готовые байты
+        Channels.newChannel(output).write(keys.pem());
         output.flush();
     }
 
@@ -153,18 +638,13 @@ public class KeyGenerationServer {
 
     public static void main(String[] args) throws Exception {
         if (args.length < 4) {
-            System.out.println("Usage: java KeyGenerationServer <port> <threads> <issuer> <caKey>");
+            System.out.println(ServerConfig.USAGE);
             return;
         }
 
-        int port = Integer.parseInt(args[0]);
-        int threads = Integer.parseInt(args[1]);
-        String issuer = args[2];
-        PrivateKey caKey = loadPrivateKey(args[3]);
+        ServerConfig config = ServerConfig.parse(args);
+        PrivateKey caKey = loadPrivateKey(config.caKeyFile());
 
-        new KeyGenerationServer(port, threads, issuer, caKey).start();
+        new KeyGenerationServer(config, caKey).start();
     }
 }
-
-record Task(String name, CompletableFuture<KeyData> future) {}
-
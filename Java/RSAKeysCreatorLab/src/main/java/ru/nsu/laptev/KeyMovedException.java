@@ -0,0 +1,25 @@
+package ru.nsu.laptev;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Имя принадлежит другому узлу кластера; в режиме перенаправления клиент должен повторить запрос у owner
+public class KeyMovedException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    private final String owner;
+
+    public KeyMovedException(String owner) {
+        super("moved to " + owner);
+        this.owner = owner;
+    }
+
+    public String owner() {
+        return owner;
+    }
+
+    // Ответ в одиночном протоколе вместо PEM
+    public ByteBuffer toResponse() {
+        return ByteBuffer.wrap(("MOVED " + owner + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,134 @@
+package ru.nsu.laptev;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// Пул заранее сгенерированных ключевых пар.
+// Фоновые потоки дозаполняют пул до highWatermark, как только в нём остаётся не больше lowWatermark пар.
+// Заглушка (stub) вместо генерации всегда отдаёт одну и ту же пару - для нагрузочных тестов без затрат на RSA.
+public class KeyPairPool {
+    private final KeyProfile profile;
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final BlockingQueue<KeyPair> pairs;
+    private final KeyPair stubPair;
+
+    private final Object refillLock = new Object();
+    private boolean refilling = true;
+
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+    private final LatencyHistogram generationTime = new LatencyHistogram();
+
+    public KeyPairPool(KeyProfile profile, int lowWatermark, int highWatermark) throws GeneralSecurityException {
+        if (lowWatermark < 0 || highWatermark <= lowWatermark) {
+            throw new IllegalArgumentException("Pool watermarks must satisfy 0 <= low < high");
+        }
+        // Проверяем алгоритм сразу, а не в фоновом потоке
+        profile.newGenerator();
+
+        this.profile = profile;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.pairs = new ArrayBlockingQueue<>(highWatermark);
+        this.stubPair = null;
+    }
+
+    private KeyPairPool(KeyProfile profile, KeyPair stubPair) {
+        this.profile = profile;
+        this.lowWatermark = 0;
+        this.highWatermark = 1;
+        this.pairs = new ArrayBlockingQueue<>(1);
+        this.stubPair = stubPair;
+    }
+
+    public static KeyPairPool stub(KeyProfile profile, KeyPair pair) {
+        return new KeyPairPool(profile, pair);
+    }
+
+    public void start(int threads, int priority) {
+        if (stubPair != null) {
+            return;
+        }
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(this::refill, "pool-refill-" + profile.id() + "-" + i);
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            thread.start();
+        }
+    }
+
+    public KeyPair take() throws InterruptedException {
+        if (stubPair != null) {
+            return stubPair;
+        }
+        KeyPair pair = pairs.poll();
+        if (pair == null) {
+            stalls.increment();
+            checkLowWatermark();
+            pair = pairs.take();
+        }
+        checkLowWatermark();
+        return pair;
+    }
+
+    public int depth() {
+        return pairs.size();
+    }
+
+    public long generatedCount() {
+        return generated.sum();
+    }
+
+    public long stallCount() {
+        return stalls.sum();
+    }
+
+    public LatencyHistogram generationTime() {
+        return generationTime;
+    }
+
+    private void checkLowWatermark() {
+        synchronized (refillLock) {
+            if (!refilling && pairs.size() <= lowWatermark) {
+                refilling = true;
+                refillLock.notifyAll();
+            }
+        }
+    }
+
+    private void refill() {
+        try {
+            // У каждого потока свой генератор, чтобы не делить его состояние
+            KeyPairGenerator keyGen = profile.newGenerator();
+
+            while (true) {
+                synchronized (refillLock) {
+                    while (!refilling) {
+                        refillLock.wait();
+                    }
+                }
+
+                long start = System.nanoTime();
+                KeyPair pair = keyGen.generateKeyPair();
+                generationTime.recordSince(start);
+                pairs.put(pair);
+                generated.increment();
+
+                synchronized (refillLock) {
+                    if (pairs.size() >= highWatermark) {
+                        refilling = false;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (GeneralSecurityException e) {
+            System.err.println("Pool refill error: " + e.getMessage());
+        }
+    }
+}
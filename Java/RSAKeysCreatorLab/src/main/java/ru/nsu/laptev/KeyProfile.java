@@ -0,0 +1,84 @@
+package ru.nsu.laptev;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.ECGenParameterSpec;
+
+// Профиль выдаваемого ключа: алгоритм, размер или кривая и хэш для подписи сертификата.
+// Клиент выбирает профиль префиксом в запросе: "ec-p256:Alice". Имя без префикса получает профиль по умолчанию.
+public enum KeyProfile {
+    RSA_2048("rsa-2048", "RSA", 2048, null, "SHA256"),
+    RSA_3072("rsa-3072", "RSA", 3072, null, "SHA256"),
+    RSA_4096("rsa-4096", "RSA", 4096, null, "SHA384"),
+    RSA_8192("rsa-8192", "RSA", 8192, null, "SHA256"),
+    EC_P256("ec-p256", "EC", 0, new ECGenParameterSpec("secp256r1"), "SHA256"),
+    ED25519("ed25519", "Ed25519", 0, null, "SHA512");
+
+    public static final KeyProfile DEFAULT = RSA_8192;
+
+    private final String id;
+    private final String algorithm;
+    private final int keySize;
+    private final AlgorithmParameterSpec parameters;
+    private final String digest;
+
+    KeyProfile(String id, String algorithm, int keySize, AlgorithmParameterSpec parameters, String digest) {
+        this.id = id;
+        this.algorithm = algorithm;
+        this.keySize = keySize;
+        this.parameters = parameters;
+        this.digest = digest;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public KeyPairGenerator newGenerator() throws GeneralSecurityException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance(algorithm);
+        if (parameters != null) {
+            keyGen.initialize(parameters);
+        } else if (keySize > 0) {
+            keyGen.initialize(keySize);
+        }
+        return keyGen;
+    }
+
+    // Подписывает сертификат ключ УЦ, поэтому алгоритм подписи зависит и от него: от профиля берётся только хэш
+    public String signatureAlgorithm(PrivateKey caPrivateKey) {
+        return switch (caPrivateKey.getAlgorithm()) {
+            case "RSA" -> digest + "WithRSA";
+            case "EC", "ECDSA" -> digest + "withECDSA";
+            case "Ed25519", "EdDSA" -> "Ed25519";
+            default -> throw new IllegalArgumentException("Unsupported CA key algorithm: " + caPrivateKey.getAlgorithm());
+        };
+    }
+
+    // Ключ в кэше и хранилище; у профиля по умолчанию - просто имя, чтобы старые записи оставались действительными
+    public String cacheKey(String name) {
+        return this == DEFAULT ? name : id + ":" + name;
+    }
+
+    public static KeyProfile byId(String id) {
+        for (KeyProfile profile : values()) {
+            if (profile.id.equals(id)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    // Разбор запроса "профиль:имя"; префикс, не совпадающий ни с одним профилем, считается частью имени
+    public static KeyProfile ofRequest(String request) {
+        int colon = request.indexOf(':');
+        KeyProfile profile = colon > 0 ? byId(request.substring(0, colon)) : null;
+        return profile != null ? profile : DEFAULT;
+    }
+
+    public static String nameOfRequest(String request) {
+        int colon = request.indexOf(':');
+        return colon > 0 && byId(request.substring(0, colon)) != null ? request.substring(colon + 1) : request;
+    }
+}
@@ -0,0 +1,229 @@
+package ru.nsu.laptev;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Нагрузочный генератор для KeyGenerationServer: много клиентов на виртуальных потоках в одной JVM.
+// Один и тот же набор имён прогоняется дважды: первый проход идёт по холодному кэшу, второй - по тёплому.
+// closed-loop: каждый клиент шлёт следующий запрос сразу после ответа на предыдущий.
+// open-loop: запросы отправляются с заданной частотой независимо от ответов, задержка считается
+// от запланированного времени отправки, чтобы медленный сервер не занижал её (coordinated omission).
+// Для измерения сети и кэша без генерации RSA сервер запускается с --stub-keys.
+public class LoadGenerator {
+    private static final String USAGE =
+            "Usage: java LoadGenerator <host> <port> [options]\n" +
+            "Options:\n" +
+            "  --clients=N            concurrent clients in closed-loop mode (default 64)\n" +
+            "  --requests=N           requests per pass (default 1000)\n" +
+            "  --rate=R               open-loop mode: requests per second, 0 for closed-loop (default 0)\n" +
+            "  --distribution=D       unique, zipf or duplicate (default unique)\n" +
+            "  --hot-set=N            distinct names in the zipf distribution (default 1000)\n" +
+            "  --zipf-exponent=S      skew of the zipf distribution (default 1.0)\n" +
+            "  --profile=ID           key profile of the requested names (default ec-p256)\n" +
+            "  --passes=N             passes over the same names, the first one is cold (default 2)\n" +
+            "  --seed=N               seed of the name sequence (default random)";
+
+    private final String host;
+    private final int port;
+    private final Map<String, String> options;
+
+    private LoadGenerator(String host, int port, Map<String, String> options) {
+        this.host = host;
+        this.port = port;
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        Map<String, String> options = new HashMap<>();
+        for (int i = 2; i < args.length; i++) {
+            String arg = args[i];
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                System.err.println("Unexpected argument: " + arg);
+                System.out.println(USAGE);
+                return;
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+
+        new LoadGenerator(args[0], Integer.parseInt(args[1]), options).run();
+    }
+
+    private String option(String key, String defaultValue) {
+        return options.getOrDefault(key, defaultValue);
+    }
+
+    private void run() throws InterruptedException {
+        int requests = Integer.parseInt(option("requests", "1000"));
+        long seed = Long.parseLong(option("seed", String.valueOf(System.nanoTime())));
+        String distribution = option("distribution", "unique");
+        List<String> names = names(distribution, requests, new Random(seed));
+
+        int clients = Integer.parseInt(option("clients", "64"));
+        double rate = Double.parseDouble(option("rate", "0"));
+        int passes = Integer.parseInt(option("passes", "2"));
+
+        System.out.printf("Load: %d requests per pass, %s names, %s%n", requests, distribution,
+                rate > 0 ? String.format("open-loop at %.0f req/s", rate) : "closed-loop with " + clients + " clients");
+        for (int pass = 0; pass < passes; pass++) {
+            Result result = rate > 0 ? openLoop(names, rate) : closedLoop(names, clients);
+            result.print(pass == 0 ? "cold" : "warm");
+        }
+    }
+
+    // Имена получают случайный префикс прогона, чтобы первый проход был холодным и после перезапуска клиента
+    private List<String> names(String distribution, int count, Random random) {
+        String profile = option("profile", "ec-p256");
+        String prefix = profile + ":load-" + Long.toHexString(random.nextLong() & 0xFFFFFF) + "-";
+        List<String> names = new ArrayList<>(count);
+
+        switch (distribution) {
+            case "unique" -> {
+                for (int i = 0; i < count; i++) {
+                    names.add(prefix + i);
+                }
+            }
+            case "duplicate" -> {
+                for (int i = 0; i < count; i++) {
+                    names.add(prefix + "0");
+                }
+            }
+            case "zipf" -> {
+                int hotSet = Integer.parseInt(option("hot-set", "1000"));
+                double[] cdf = zipfCdf(hotSet, Double.parseDouble(option("zipf-exponent", "1.0")));
+                for (int i = 0; i < count; i++) {
+                    names.add(prefix + rank(cdf, random.nextDouble()));
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown distribution: " + distribution);
+        }
+        return names;
+    }
+
+    private static double[] zipfCdf(int size, double exponent) {
+        double[] cdf = new double[size];
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            total += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = total;
+        }
+        for (int i = 0; i < size; i++) {
+            cdf[i] /= total;
+        }
+        return cdf;
+    }
+
+    private static int rank(double[] cdf, double u) {
+        int low = 0;
+        int high = cdf.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cdf[mid] < u) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private Result closedLoop(List<String> names, int clients) throws InterruptedException {
+        Result result = new Result();
+        AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                executor.submit(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < names.size()) {
+                        request(names.get(index), System.nanoTime(), result);
+                    }
+                });
+            }
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private Result openLoop(List<String> names, double rate) throws InterruptedException {
+        Result result = new Result();
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < names.size(); i++) {
+                long scheduled = start + i * intervalNanos;
+                long delay = scheduled - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+                String name = names.get(i);
+                executor.submit(() -> request(name, scheduled, result));
+            }
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private void request(String name, long startNanos, Result result) {
+        try (Socket socket = new Socket(host, port);
+             OutputStream out = socket.getOutputStream();
+             InputStream in = socket.getInputStream()) {
+            out.write(name.getBytes(StandardCharsets.US_ASCII));
+            out.write(0);
+            out.flush();
+
+            byte[] response = in.readAllBytes();
+            result.latency.recordSince(startNanos);
+            if (response.length >= 4 && new String(response, 0, 4, StandardCharsets.US_ASCII).equals("BUSY")) {
+                result.busy.increment();
+            } else if (response.length == 0) {
+                result.errors.increment();
+            } else {
+                result.ok.increment();
+                result.bytes.add(response.length);
+            }
+        } catch (IOException e) {
+            result.errors.increment();
+        }
+    }
+
+    private static final class Result {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder ok = new LongAdder();
+        final LongAdder busy = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        long elapsedNanos;
+
+        void print(String pass) {
+            double seconds = elapsedNanos / 1e9;
+            System.out.printf("%s: %d ok, %d busy, %d errors in %.2f s, %.1f req/s, %.1f MiB/s%n",
+                    pass, ok.sum(), busy.sum(), errors.sum(), seconds,
+                    latency.count() / seconds, bytes.sum() / seconds / (1 << 20));
+            System.out.printf("  latency ms: p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                    latency.percentile(0.5) / 1e6, latency.percentile(0.9) / 1e6,
+                    latency.percentile(0.99) / 1e6, latency.percentile(0.999) / 1e6, latency.max() / 1e6);
+        }
+    }
+}
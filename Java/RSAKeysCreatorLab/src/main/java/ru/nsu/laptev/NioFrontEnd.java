@@ -0,0 +1,341 @@
+package ru.nsu.laptev;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Неблокирующий приём запросов на одном потоке-селекторе.
+// Буфер из пула выдаётся соединению только пока имя дочитывается, поэтому простаивающие клиенты почти не занимают память.
+class NioFrontEnd {
+    private static final int MAX_NAME_LENGTH = 4096;
+
+    private final KeyGenerationServer server;
+    private final int port;
+    private final BufferPool buffers;
+    // Действия, которые воркеры передают в поток селектора
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private Selector selector;
+
+    private record Frame(ByteBuffer[] buffers, long queuedNanos) {}
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final String client;
+        SelectionKey key;
+        ByteBuffer input;
+        int scanned;
+        boolean started;
+        boolean batch;
+        // Больше имён не будет: одиночное имя получено или пришёл конец пакета
+        boolean inputDone;
+        int outstanding;
+        // Ключи, которых соединение ещё ждёт; при закрытии ожидание снимается
+        final List<CompletableFuture<KeyData>> waiting = new ArrayList<>();
+        final ArrayDeque<Frame> output = new ArrayDeque<>();
+        boolean closed;
+
+        Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.client = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+        }
+    }
+
+    NioFrontEnd(KeyGenerationServer server, int port, int bufferSize, int maxPooledBuffers) {
+        this.server = server;
+        this.port = port;
+        this.buffers = new BufferPool(Math.max(bufferSize, MAX_NAME_LENGTH + 1), maxPooledBuffers);
+    }
+
+    void run() throws IOException {
+        selector = Selector.open();
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("Server started on port " + port + " (NIO)");
+            server.onListening();
+
+            while (true) {
+                selector.select();
+
+                Runnable action;
+                while ((action = pending.poll()) != null) {
+                    action.run();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept(serverChannel);
+                        continue;
+                    }
+
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(connection);
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Client error: " + e.getMessage());
+                        close(connection);
+                    }
+                }
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            server.metrics.acceptedConnections.increment();
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        if (connection.input == null) {
+            connection.input = buffers.acquire();
+        }
+
+        ByteBuffer input = connection.input;
+        int read = connection.channel.read(input);
+        if (read < 0) {
+            endOfInput(connection);
+            return;
+        }
+
+        if (connection.inputDone) {
+            // Имена уже получены, дальше только следим за закрытием соединения
+            input.clear();
+        } else {
+            parseNames(connection);
+        }
+
+        if (connection.input != null && input.position() == 0) {
+            buffers.release(input);
+            connection.input = null;
+        }
+    }
+
+    // Конец потока в обычном режиме или до конца пакета - клиент ушёл.
+    // После пустого имени пакета клиент может закрыть только свою сторону (shutdownOutput) и ждать ответы
+    private void endOfInput(Connection connection) throws IOException {
+        if (!connection.batch || !connection.inputDone) {
+            close(connection);
+            return;
+        }
+        connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+        buffers.release(connection.input);
+        connection.input = null;
+        // write закроет соединение, когда уйдут все ответы
+        write(connection);
+    }
+
+    private void parseNames(Connection connection) throws IOException {
+        ByteBuffer input = connection.input;
+
+        if (!connection.started && input.position() > 0) {
+            connection.started = true;
+            if (input.get(0) == ClusterProtocol.MARKER) {
+                handOffPeer(connection);
+                return;
+            }
+            if (input.get(0) == BatchProtocol.MARKER) {
+                connection.batch = true;
+                input.flip().position(1);
+                input.compact();
+            }
+        }
+
+        int end = input.position();
+        int i = connection.scanned;
+        while (i < end) {
+            if (input.get(i) != 0) {
+                i++;
+                continue;
+            }
+
+            long parseStart = System.nanoTime();
+            String name = decodeName(input, i);
+            server.metrics.nameParse.recordSince(parseStart);
+            // Убираем прочитанное имя вместе с нулевым байтом
+            input.flip().position(i + 1);
+            input.compact();
+            end = input.position();
+            i = 0;
+            connection.scanned = 0;
+
+            handleName(connection, name);
+            if (connection.inputDone || connection.closed) {
+                return;
+            }
+        }
+
+        connection.scanned = end;
+        if (!input.hasRemaining()) {
+            throw new IOException("Name too long");
+        }
+    }
+
+    // Соединения между узлами кластера редки и короткие: отдаём канал виртуальному потоку в блокирующем режиме
+    private void handOffPeer(Connection connection) {
+        ByteBuffer input = connection.input;
+        input.flip().position(1);
+        byte[] received = new byte[input.remaining()];
+        input.get(received);
+        input.clear();
+        buffers.release(input);
+        connection.input = null;
+
+        // Селектор больше не обслуживает соединение; ключ снимется с регистрации при следующем select
+        connection.closed = true;
+        connection.key.cancel();
+        SocketChannel channel = connection.channel;
+        pending.add(() -> {
+            try {
+                channel.configureBlocking(true);
+                InputStream in = new SequenceInputStream(new ByteArrayInputStream(received),
+                        Channels.newInputStream(channel));
+                Thread.startVirtualThread(() -> server.handlePeer(in, Channels.newOutputStream(channel), channel));
+            } catch (IOException e) {
+                System.err.println("Peer error: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        selector.wakeup();
+    }
+
+    private static String decodeName(ByteBuffer input, int length) throws IOException {
+        StringBuilder name = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            byte b = input.get(i);
+            if (b < 0) continue; // не-ASCII байты пропускаем, как и в блокирующем режиме
+            name.append((char) b);
+        }
+        if (name.length() > MAX_NAME_LENGTH) {
+            throw new IOException("Name too long");
+        }
+        return name.toString();
+    }
+
+    private void handleName(Connection connection, String name) throws IOException {
+        if (name.isEmpty()) {
+            if (!connection.batch) {
+                close(connection);
+                return;
+            }
+            connection.inputDone = true;
+            write(connection);
+            return;
+        }
+
+        if (!connection.batch) {
+            connection.inputDone = true;
+        }
+        connection.outstanding++;
+        (connection.batch ? server.metrics.batchRequests : server.metrics.singleRequests).increment();
+
+        server.log.sampled("Request for: ", name);
+        CompletableFuture<KeyData> future = server.getOrGenerateKeys(name, connection.client, connection.batch);
+        connection.waiting.add(future);
+        future.whenComplete((keys, error) -> {
+            pending.add(() -> onKeysReady(connection, future, name, keys, error));
+            selector.wakeup();
+        });
+    }
+
+    private void onKeysReady(Connection connection, CompletableFuture<KeyData> future, String name,
+                             KeyData keys, Throwable error) {
+        if (connection.closed) {
+            return;
+        }
+        connection.outstanding--;
+        connection.waiting.remove(future);
+
+        try {
+            ByteBuffer[] buffers;
+            if (connection.batch) {
+                buffers = BatchProtocol.resultFrame(name, keys, error);
+            } else if (error instanceof ServerBusyException busy) {
+                buffers = new ByteBuffer[] {busy.toResponse()};
+            } else if (error instanceof KeyMovedException moved) {
+                buffers = new ByteBuffer[] {moved.toResponse()};
+            } else if (error != null) {
+                throw new IOException(error.getMessage(), error);
+            } else {
+                buffers = new ByteBuffer[] {keys.pem()};
+            }
+            connection.output.add(new Frame(buffers, System.nanoTime()));
+            write(connection);
+            server.log.sampled("Sent keys for: ", name);
+        } catch (IOException e) {
+            System.err.println("Client error: " + e.getMessage());
+            close(connection);
+        }
+    }
+
+    // Пишем кадры gathering-записью; если сокет не принял всё, ждём OP_WRITE
+    private void write(Connection connection) throws IOException {
+        while (!connection.output.isEmpty()) {
+            Frame frame = connection.output.peek();
+            ByteBuffer[] buffers = frame.buffers();
+            connection.channel.write(buffers);
+            if (buffers[buffers.length - 1].hasRemaining()) {
+                connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            connection.output.poll();
+            // Для медленного клиента сюда входит и ожидание OP_WRITE
+            server.metrics.send.recordSince(frame.queuedNanos());
+        }
+
+        connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_WRITE);
+        if (connection.inputDone && connection.outstanding == 0) {
+            close(connection);
+        }
+    }
+
+    private void close(Connection connection) {
+        if (connection.closed) {
+            return;
+        }
+        connection.closed = true;
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {
+        }
+        if (connection.input != null) {
+            buffers.release(connection.input);
+            connection.input = null;
+        }
+        // Клиент ушёл, не дождавшись ключей
+        connection.waiting.forEach(server::release);
+        connection.waiting.clear();
+    }
+}
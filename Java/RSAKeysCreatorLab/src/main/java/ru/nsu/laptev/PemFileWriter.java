@@ -0,0 +1,189 @@
+package ru.nsu.laptev;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Потоковый разбор ответа с ключами: байты PEM разбираются построчно по мере прихода,
+// и каждый блок сразу пишется в свой файл (.key, .pub, .crt) через FileChannel.
+// Файл пишется во временный, после fsync атомарно переименовывается - при обрыве старые файлы остаются целыми.
+// Буферы фиксированного размера и переиспользуются, так что память не растёт с числом и размером ответов.
+final class PemFileWriter implements Closeable {
+    private static final int MAX_LINE = 4096;
+    private static final byte[] BEGIN = "-----BEGIN ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "-----END ".getBytes(StandardCharsets.US_ASCII);
+    private static final String[] TYPES = {"PRIVATE KEY", "PUBLIC KEY", "CERTIFICATE"};
+    private static final String[] EXTENSIONS = {".key", ".pub", ".crt"};
+
+    private final byte[] line = new byte[MAX_LINE];
+    private final ByteBuffer output = ByteBuffer.allocate(8192);
+    private final Path[] temporary = new Path[TYPES.length];
+    private final Path[] targets = new Path[TYPES.length];
+
+    private Path directory;
+    private int lineLength;
+    private int current = -1;
+    private FileChannel channel;
+
+    // Начать разбор ответа для очередного имени
+    void start(Path directory, String baseName) {
+        reset();
+        this.directory = directory;
+        for (int i = 0; i < TYPES.length; i++) {
+            targets[i] = directory.resolve(baseName + EXTENSIONS[i]);
+        }
+    }
+
+    void write(byte[] bytes, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            byte b = bytes[i];
+            if (b == '\n') {
+                endLine();
+            } else if (b != '\r') {
+                if (lineLength == MAX_LINE) {
+                    throw new IOException("Invalid response from server: line too long");
+                }
+                line[lineLength++] = b;
+            }
+        }
+    }
+
+    // Все три блока получены: сбрасываем на диск и переименовываем в итоговые файлы
+    void finish() throws IOException {
+        if (lineLength > 0) {
+            endLine();
+        }
+        for (Path path : temporary) {
+            if (path == null || current >= 0) {
+                throw new IOException("Invalid response from server: missing PEM blocks");
+            }
+        }
+        for (int i = 0; i < TYPES.length; i++) {
+            Files.move(temporary[i], targets[i], StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            temporary[i] = null;
+        }
+        syncDirectory();
+    }
+
+    // Ответ не дочитан: удаляем временные файлы
+    @Override
+    public void close() {
+        reset();
+    }
+
+    private void reset() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+        for (int i = 0; i < temporary.length; i++) {
+            if (temporary[i] != null) {
+                try {
+                    Files.deleteIfExists(temporary[i]);
+                } catch (IOException ignored) {
+                }
+                temporary[i] = null;
+            }
+        }
+        current = -1;
+        lineLength = 0;
+        output.clear();
+    }
+
+    private void endLine() throws IOException {
+        if (current < 0) {
+            if (startsWith(BEGIN)) {
+                openBlock();
+            }
+            // строки вне блоков (пустые между блоками) пропускаем
+        } else {
+            append();
+            if (startsWith(END)) {
+                closeBlock();
+            }
+        }
+        lineLength = 0;
+    }
+
+    private void openBlock() throws IOException {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (matchesType(TYPES[i])) {
+                if (temporary[i] != null) {
+                    throw new IOException("Invalid response from server: duplicate " + TYPES[i] + " block");
+                }
+                current = i;
+                temporary[i] = Files.createTempFile(directory, targets[i].getFileName().toString(), ".tmp");
+                channel = FileChannel.open(temporary[i], StandardOpenOption.WRITE);
+                append();
+                return;
+            }
+        }
+        throw new IOException("Invalid response from server: unexpected PEM block");
+    }
+
+    private void closeBlock() throws IOException {
+        flush();
+        channel.force(true);
+        channel.close();
+        channel = null;
+        current = -1;
+    }
+
+    private void append() throws IOException {
+        if (output.remaining() < lineLength + 1) {
+            flush();
+        }
+        output.put(line, 0, lineLength).put((byte) '\n');
+    }
+
+    private void flush() throws IOException {
+        output.flip();
+        while (output.hasRemaining()) {
+            channel.write(output);
+        }
+        output.clear();
+    }
+
+    private boolean startsWith(byte[] prefix) {
+        if (lineLength < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // "-----BEGIN <type>-----"
+    private boolean matchesType(String type) {
+        int length = BEGIN.length + type.length() + 5;
+        if (lineLength != length) {
+            return false;
+        }
+        for (int i = 0; i < type.length(); i++) {
+            if (line[BEGIN.length + i] != type.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Переименование становится надёжным только после fsync каталога; не на всех ОС каталог можно открыть
+    private void syncDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+}
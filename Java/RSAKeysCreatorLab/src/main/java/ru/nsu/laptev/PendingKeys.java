@@ -0,0 +1,44 @@
+package ru.nsu.laptev;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Незавершённая генерация ключа со счётчиком ждущих её клиентов.
+// Когда последний клиент отключился, воркер может отказаться от задачи: счётчик переводится из 0 в -1,
+// и после этого новых ждущих у future уже не будет - следующий запрос того же имени создаст новую.
+final class PendingKeys extends CompletableFuture<KeyData> {
+    private static final int ABANDONED = -1;
+
+    private final AtomicInteger waiters = new AtomicInteger();
+    // Ключ запрошен у другого узла кластера, а не генерируется здесь
+    private final boolean forwarded;
+
+    PendingKeys(boolean forwarded) {
+        this.forwarded = forwarded;
+    }
+
+    boolean forwarded() {
+        return forwarded;
+    }
+
+    // false - задача уже брошена, нужно запросить ключ заново
+    boolean acquire() {
+        int current;
+        do {
+            current = waiters.get();
+            if (current == ABANDONED) {
+                return false;
+            }
+        } while (!waiters.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    void release() {
+        waiters.updateAndGet(current -> current > 0 ? current - 1 : current);
+    }
+
+    // Вызывается воркером перед началом работы; true - никто больше не ждёт, задачу можно выбросить
+    boolean abandonIfUnwanted() {
+        return waiters.compareAndSet(0, ABANDONED);
+    }
+}
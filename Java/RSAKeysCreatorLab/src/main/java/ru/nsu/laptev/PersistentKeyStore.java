@@ -0,0 +1,311 @@
+package ru.nsu.laptev;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Хранилище выданных ключей на диске: append-only сегменты, отображённые в память.
+// Формат записи: magic, длина тела, CRC32 тела, тело = [имя][PKCS#8 закрытого ключа][DER сертификата].
+// Недописанная после падения запись не проходит проверку CRC и при загрузке перезаписывается.
+public class PersistentKeyStore {
+    private static final int MAGIC = 0x4B455931; // "KEY1"
+    private static final int HEADER_SIZE = 12;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final double COMPACTION_THRESHOLD = 0.5;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final ConcurrentMap<String, Location> index = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+    private final ScheduledExecutorService compactor;
+
+    // Изменяются только под this; там же обновляется index после записи в сегмент,
+    // чтобы порядок в индексе совпадал с порядком записей, который восстановит scan
+    private Segment active;
+
+    private record Location(Segment segment, int offset, int length) {}
+
+    private static final class Segment {
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        volatile int writePosition;
+
+        Segment(int id, Path path, int size) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+    }
+
+    public PersistentKeyStore(Path directory, int segmentSize, int compactionIntervalSeconds) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "store-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Индекс строится в фоне, запросы к хранилищу дожидаются окончания загрузки
+        compactor.execute(this::load);
+        if (compactionIntervalSeconds > 0) {
+            compactor.scheduleWithFixedDelay(this::compact,
+                    compactionIntervalSeconds, compactionIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public KeyData get(String name) throws Exception {
+        awaitLoaded();
+        Location location = index.get(name);
+        if (location == null) {
+            return null;
+        }
+
+        ByteBuffer record = location.segment().buffer.slice(location.offset(), location.length());
+        return decode(record);
+    }
+
+    public boolean contains(String name) throws Exception {
+        awaitLoaded();
+        return index.containsKey(name);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public Set<String> names() throws Exception {
+        awaitLoaded();
+        return Set.copyOf(index.keySet());
+    }
+
+    public void put(String name, KeyData keys) throws Exception {
+        awaitLoaded();
+        byte[] record = encode(name, keys.keyPair().getPrivate().getEncoded(), keys.certificate().getEncoded());
+        synchronized (this) {
+            index.put(name, append(record));
+        }
+    }
+
+    private void awaitLoaded() throws Exception {
+        try {
+            loaded.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Key store failed to load", e.getCause());
+        }
+    }
+
+    private synchronized Location append(byte[] record) throws IOException {
+        if (record.length > segmentSize) {
+            throw new IOException("Record does not fit into a segment: " + record.length + " bytes");
+        }
+        if (active.writePosition + record.length > active.capacity()) {
+            active = openSegment(active.id + 1);
+        }
+
+        int offset = active.writePosition;
+        active.buffer.put(offset, record);
+        active.buffer.force(offset, record.length);
+        active.writePosition = offset + record.length;
+        return new Location(active, offset, record.length);
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        Path path = directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        Segment segment = new Segment(id, path, segmentSize);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private void load() {
+        try {
+            List<Integer> ids = new ArrayList<>();
+            try (Stream<Path> files = Files.list(directory)) {
+                files.map(path -> path.getFileName().toString())
+                        .filter(file -> file.startsWith(SEGMENT_PREFIX) && file.endsWith(SEGMENT_SUFFIX))
+                        .forEach(file -> ids.add(Integer.parseInt(
+                                file.substring(SEGMENT_PREFIX.length(), file.length() - SEGMENT_SUFFIX.length()))));
+            }
+            Collections.sort(ids);
+
+            Segment last = null;
+            for (int id : ids) {
+                last = openSegment(id);
+                scan(last);
+            }
+
+            synchronized (this) {
+                active = last != null ? last : openSegment(1);
+            }
+            System.out.println("Key store loaded: " + index.size() + " entries from " + segments.size() + " segments");
+            loaded.complete(null);
+        } catch (Exception e) {
+            loaded.completeExceptionally(e);
+        }
+    }
+
+    // Читаем записи до первой пустой или повреждённой; более поздние записи перекрывают ранние
+    private void scan(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+
+        while (position + HEADER_SIZE <= buffer.capacity()) {
+            if (buffer.getInt(position) != MAGIC) {
+                break;
+            }
+            int bodyLength = buffer.getInt(position + 4);
+            int length = HEADER_SIZE + bodyLength;
+            if (bodyLength <= 0 || position + length > buffer.capacity()) {
+                break;
+            }
+
+            ByteBuffer body = buffer.slice(position + HEADER_SIZE, bodyLength);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(position + 8)) {
+                System.err.println("Key store: corrupted record in " + segment.path + " at " + position);
+                break;
+            }
+
+            index.put(readName(body), new Location(segment, position, length));
+            position += length;
+        }
+        segment.writePosition = position;
+    }
+
+    // Переписываем живые записи из сегментов, где мусора больше половины, и удаляем эти сегменты
+    private void compact() {
+        if (!loaded.isDone() || loaded.isCompletedExceptionally()) {
+            return;
+        }
+
+        Map<Segment, Integer> liveBytes = new HashMap<>();
+        for (Location location : index.values()) {
+            liveBytes.merge(location.segment(), location.length(), Integer::sum);
+        }
+
+        for (Segment segment : segments.values()) {
+            synchronized (this) {
+                if (segment == active) {
+                    continue;
+                }
+            }
+            int live = liveBytes.getOrDefault(segment, 0);
+            if (live >= segment.writePosition * COMPACTION_THRESHOLD) {
+                continue;
+            }
+
+            try {
+                for (Map.Entry<String, Location> entry : index.entrySet()) {
+                    Location location = entry.getValue();
+                    if (location.segment() != segment) {
+                        continue;
+                    }
+                    byte[] record = new byte[location.length()];
+                    segment.buffer.get(location.offset(), record);
+                    synchronized (this) {
+                        // Ключ успели перезаписать: копия старой записи после новой вернула бы её при загрузке
+                        if (location.equals(index.get(entry.getKey()))) {
+                            index.put(entry.getKey(), append(record));
+                        }
+                    }
+                }
+
+                segments.remove(segment.id);
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+                System.out.println("Key store: compacted " + segment.path.getFileName());
+            } catch (IOException e) {
+                System.err.println("Key store compaction error: " + e.getMessage());
+            }
+        }
+    }
+
+    private static byte[] encode(String name, byte[] privateKey, byte[] certificate) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = 2 + nameBytes.length + 4 + privateKey.length + 4 + certificate.length;
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bodyLength);
+        record.putInt(MAGIC).putInt(bodyLength).putInt(0);
+        record.putShort((short) nameBytes.length).put(nameBytes);
+        record.putInt(privateKey.length).put(privateKey);
+        record.putInt(certificate.length).put(certificate);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, bodyLength);
+        record.putInt(8, (int) crc.getValue());
+        return record.array();
+    }
+
+    // Запись в формате сегмента; в этом же виде ключи передаются между узлами кластера
+    static byte[] encodeRecord(String name, KeyData keys) throws CertificateEncodingException {
+        return encode(name, keys.keyPair().getPrivate().getEncoded(), keys.certificate().getEncoded());
+    }
+
+    static String recordName(ByteBuffer record) {
+        return readName(record.slice(HEADER_SIZE, record.limit() - HEADER_SIZE));
+    }
+
+    // Запись, пришедшая извне, проверяется так же, как при загрузке сегмента
+    static KeyData decodeRecord(ByteBuffer record) throws Exception {
+        int bodyLength = record.limit() - HEADER_SIZE;
+        if (bodyLength <= 0 || record.getInt(0) != MAGIC || record.getInt(4) != bodyLength) {
+            throw new IOException("Malformed key record");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.slice(HEADER_SIZE, bodyLength));
+        if ((int) crc.getValue() != record.getInt(8)) {
+            throw new IOException("Key record checksum mismatch");
+        }
+        return decode(record.duplicate());
+    }
+
+    private static String readName(ByteBuffer body) {
+        byte[] name = new byte[body.getShort(0) & 0xFFFF];
+        body.get(2, name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private static KeyData decode(ByteBuffer record) throws Exception {
+        ByteBuffer body = record.position(HEADER_SIZE).slice();
+        body.position(2 + (body.getShort() & 0xFFFF));
+
+        byte[] privateKey = new byte[body.getInt()];
+        body.get(privateKey);
+        byte[] certificate = new byte[body.getInt()];
+        body.get(certificate);
+
+        X509Certificate cert = (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(certificate));
+        PrivateKey key = KeyFactory.getInstance(cert.getPublicKey().getAlgorithm())
+                .generatePrivate(new PKCS8EncodedKeySpec(privateKey));
+        return KeyData.of(new KeyPair(cert.getPublicKey(), key), cert);
+    }
+}
@@ -0,0 +1,10 @@
+package ru.nsu.laptev;
+
+// Задача генерации выброшена, потому что все клиенты, ждавшие ключ, отключились
+public class RequestAbandonedException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    public RequestAbandonedException(String name) {
+        super("Abandoned by all clients: " + name);
+    }
+}
@@ -0,0 +1,25 @@
+package ru.nsu.laptev;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Сервер перегружен и не принимает новую работу; клиенту стоит повторить запрос через retryAfterSeconds
+public class ServerBusyException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    private final int retryAfterSeconds;
+
+    public ServerBusyException(int retryAfterSeconds) {
+        super("busy, retry after " + retryAfterSeconds + " s");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    // Ответ в одиночном протоколе вместо PEM
+    public ByteBuffer toResponse() {
+        return ByteBuffer.wrap(("BUSY retry-after=" + retryAfterSeconds + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,89 @@
+package ru.nsu.laptev;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// Параметры сервера: обязательные позиционные аргументы и необязательные опции вида --key=value
+public record ServerConfig(int port, int threads, String issuer, String caKeyFile, Map<String, String> options) {
+
+    public static final String USAGE =
+            "Usage: java KeyGenerationServer <port> <threads> <issuer> <caKey> [options]\n" +
+            "Options:\n" +
+            "  --profiles=LIST        enabled key profiles (default rsa-8192,ec-p256,ed25519), also\n" +
+            "                         rsa-2048, rsa-3072, rsa-4096; clients pick one as '<profile>:<name>'\n" +
+            "  --pool-high=N          ready key pairs kept in the pool (default 16)\n" +
+            "  --pool-low=N           refill starts when the pool drops to N (default 4)\n" +
+            "  --pool-threads=N       background key generation threads (default <threads>)\n" +
+            "                         pool options also accept a per-profile form, e.g. --pool-high.ec-p256=256\n" +
+            "  --pool-priority=N      priority of the refill threads, 1..10 (default 4)\n" +
+            "  --stub-keys            hand out one precomputed EC key pair instead of generating keys,\n" +
+            "                         for benchmarking the network and cache layers\n" +
+            "  --stats-interval=SEC   period of the stats report, 0 to disable (default 60)\n" +
+            "  --max-backlog=N        queued generation tasks before new ones are rejected as busy (default 10000)\n" +
+            "  --max-per-client=N     queued tasks allowed per client address (default 1000)\n" +
+            "  --retry-after=SEC      retry delay suggested in a busy reply (default 5)\n" +
+            "  --high-priority-clients=LIST  client addresses served with high priority\n" +
+            "  --cache-entries=N      keys kept in memory (default 100000)\n" +
+            "  --cache-mb=N           memory budget of the key cache (default 512)\n" +
+            "  --store=DIR            keep issued keys in memory-mapped segment files under DIR\n" +
+            "  --store-segment-mb=N   size of one store segment (default 64)\n" +
+            "  --store-compaction-interval=SEC  period of store compaction, 0 to disable (default 300)\n" +
+            "  --node-id=HOST:PORT    cluster mode: address of this node as other nodes and clients reach it\n" +
+            "                         (default 127.0.0.1:<port>)\n" +
+            "  --peers=LIST           cluster mode: known nodes to join, HOST:PORT separated by commas\n" +
+            "  --virtual-nodes=N      points of one node on the hash ring (default 128)\n" +
+            "  --cluster-redirect     answer 'MOVED HOST:PORT' for names of other nodes instead of forwarding\n" +
+            "  --handoff-window=SEC   after a membership change, ask the previous owner on a miss (default 300);\n" +
+            "                         the previous owner is asked in any case until it reports its handoff done\n" +
+            "  --gossip-interval=SEC  period of the membership exchange with a random node (default 2)\n" +
+            "  --metrics-port=N       serve Prometheus metrics on http://127.0.0.1:N/metrics\n" +
+            "  --log-sample=F         share of per-request log lines that are written, 0..1 (default 0.01)\n" +
+            "  --nio                  serve clients from a single selector thread instead of a thread per socket\n" +
+            "  --nio-buffer-size=N    size of a pooled read buffer in bytes (default 8192)\n" +
+            "  --nio-pooled-buffers=N read buffers kept for reuse (default 1024)";
+
+    public ServerConfig {
+        options = Collections.unmodifiableMap(new HashMap<>(options));
+    }
+
+    public static ServerConfig parse(String[] args) {
+        if (args.length < 4) {
+            throw new IllegalArgumentException("Missing required arguments");
+        }
+
+        Map<String, String> options = new HashMap<>();
+        for (int i = 4; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+
+        return new ServerConfig(Integer.parseInt(args[0]), Integer.parseInt(args[1]), args[2], args[3], options);
+    }
+
+    public String option(String key, String defaultValue) {
+        return options.getOrDefault(key, defaultValue);
+    }
+
+    public int intOption(String key, int defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    // Значение для конкретного профиля ключей (--key.<profile>=N), иначе общее --key=N
+    public int profileIntOption(String key, KeyProfile profile, int defaultValue) {
+        return intOption(key + "." + profile.id(), intOption(key, defaultValue));
+    }
+
+    public boolean flag(String key) {
+        return Boolean.parseBoolean(options.getOrDefault(key, "false"));
+    }
+}
@@ -0,0 +1,141 @@
+package ru.nsu.laptev;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Счётчики и гистограммы сервера и их вывод в текстовом формате Prometheus.
+// Все записи без блокировок: LongAdder и LatencyHistogram. Время - в наносекундах, при выводе - в секундах.
+public class ServerMetrics {
+    // Границы корзин гистограмм при выводе, в секундах
+    private static final double[] BUCKETS = {
+            0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30, 60, 120
+    };
+
+    final LongAdder acceptedConnections = new LongAdder();
+    final LongAdder singleRequests = new LongAdder();
+    final LongAdder batchRequests = new LongAdder();
+    final LongAdder workerBusyNanos = new LongAdder();
+    // Клиенты, отключившиеся до ответа, и задачи, выброшенные из-за того, что их никто не ждёт
+    final LongAdder abandonedWaiters = new LongAdder();
+    final LongAdder abandonedTasks = new LongAdder();
+    final LongAdder abandonedSavedNanos = new LongAdder();
+
+    // Кластерный режим
+    final LongAdder clusterForwarded = new LongAdder();
+    final LongAdder clusterRedirected = new LongAdder();
+    final LongAdder clusterPulled = new LongAdder();
+    final LongAdder clusterTransferredIn = new LongAdder();
+    final LongAdder clusterTransferredOut = new LongAdder();
+
+    final LatencyHistogram nameParse = new LatencyHistogram();
+    final LatencyHistogram signing = new LatencyHistogram();
+    final LatencyHistogram pemEncoding = new LatencyHistogram();
+    final LatencyHistogram send = new LatencyHistogram();
+
+    private final long startNanos = System.nanoTime();
+
+    public String scrape(KeyCache cache, FairTaskScheduler scheduler, Map<KeyProfile, KeyPairPool> pools,
+                         int workers, AsyncLog log) {
+        StringBuilder out = new StringBuilder(8192);
+
+        counter(out, "keyserver_accepted_connections_total", "Accepted client connections", acceptedConnections.sum());
+        out.append("# HELP keyserver_requests_total Requested names by protocol mode\n")
+                .append("# TYPE keyserver_requests_total counter\n")
+                .append("keyserver_requests_total{mode=\"single\"} ").append(singleRequests.sum()).append('\n')
+                .append("keyserver_requests_total{mode=\"batch\"} ").append(batchRequests.sum()).append('\n');
+
+        long hits = cache.hitCount();
+        long misses = cache.missCount();
+        counter(out, "keyserver_cache_hits_total", "Key cache hits", hits);
+        counter(out, "keyserver_cache_misses_total", "Key cache misses", misses);
+        counter(out, "keyserver_cache_evictions_total", "Key cache evictions", cache.evictionCount());
+        gauge(out, "keyserver_cache_entries", "Keys held in memory", cache.size());
+        gauge(out, "keyserver_cache_pending", "Keys being generated", cache.pendingCount());
+        gauge(out, "keyserver_cache_bytes", "Estimated memory held by cached keys", cache.weightedSize());
+        gauge(out, "keyserver_cache_hit_ratio", "Share of lookups served from memory",
+                hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+
+        gauge(out, "keyserver_queue_backlog", "Generation tasks waiting for a worker", scheduler.backlog());
+        counter(out, "keyserver_queue_rejected_total", "Tasks rejected as busy", scheduler.rejectedCount());
+
+        out.append("# HELP keyserver_pool_depth Ready key pairs in the pool\n# TYPE keyserver_pool_depth gauge\n");
+        pools.forEach((profile, pool) -> labeled(out, "keyserver_pool_depth", profile, pool.depth()));
+        out.append("# HELP keyserver_pool_generated_total Key pairs generated by refill threads\n")
+                .append("# TYPE keyserver_pool_generated_total counter\n");
+        pools.forEach((profile, pool) -> labeled(out, "keyserver_pool_generated_total", profile, pool.generatedCount()));
+        out.append("# HELP keyserver_pool_stalls_total Takes that found the pool empty\n")
+                .append("# TYPE keyserver_pool_stalls_total counter\n");
+        pools.forEach((profile, pool) -> labeled(out, "keyserver_pool_stalls_total", profile, pool.stallCount()));
+
+        double uptime = (System.nanoTime() - startNanos) / 1e9;
+        counter(out, "keyserver_worker_busy_seconds_total", "Time workers spent processing tasks",
+                workerBusyNanos.sum() / 1e9);
+        gauge(out, "keyserver_worker_utilization", "Average share of time workers were busy since start",
+                workerBusyNanos.sum() / 1e9 / (workers * uptime));
+        counter(out, "keyserver_abandoned_waiters_total", "Clients that disconnected before their keys were ready",
+                abandonedWaiters.sum());
+        counter(out, "keyserver_abandoned_tasks_total", "Generation tasks dropped because no client waited for them",
+                abandonedTasks.sum());
+        counter(out, "keyserver_abandoned_saved_seconds_total",
+                "Estimated generation and signing time saved by dropped tasks", abandonedSavedNanos.sum() / 1e9);
+        counter(out, "keyserver_cluster_forwarded_total", "Requests forwarded to the owning node",
+                clusterForwarded.sum());
+        counter(out, "keyserver_cluster_redirected_total", "Clients redirected to the owning node",
+                clusterRedirected.sum());
+        counter(out, "keyserver_cluster_pulled_total", "Keys fetched from the previous owner on a miss",
+                clusterPulled.sum());
+        counter(out, "keyserver_cluster_transferred_in_total", "Keys received from other nodes on rebalance",
+                clusterTransferredIn.sum());
+        counter(out, "keyserver_cluster_transferred_out_total", "Keys handed over to other nodes on rebalance",
+                clusterTransferredOut.sum());
+        counter(out, "keyserver_log_dropped_total", "Log lines dropped on a full log queue", log.droppedCount());
+
+        histogram(out, "keyserver_name_parse_seconds", "Reading and parsing a requested name", null, nameParse);
+        histogram(out, "keyserver_queue_wait_seconds", "Time a task waited for a worker", null, scheduler.queueWait());
+        out.append("# HELP keyserver_key_generation_seconds Key pair generation in refill threads\n")
+                .append("# TYPE keyserver_key_generation_seconds histogram\n");
+        pools.forEach((profile, pool) -> histogramSeries(out, "keyserver_key_generation_seconds",
+                "profile=\"" + profile.id() + "\"", pool.generationTime()));
+        histogram(out, "keyserver_certificate_signing_seconds", "Certificate signing", null, signing);
+        histogram(out, "keyserver_pem_encoding_seconds", "Encoding the PEM response", null, pemEncoding);
+        histogram(out, "keyserver_send_seconds", "Writing a response to the client", null, send);
+
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, double value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" counter\n")
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" gauge\n")
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void labeled(StringBuilder out, String name, KeyProfile profile, double value) {
+        out.append(name).append("{profile=\"").append(profile.id()).append("\"} ").append(value).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, String name, String help, String labels,
+                                  LatencyHistogram histogram) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" histogram\n");
+        histogramSeries(out, name, labels, histogram);
+    }
+
+    private static void histogramSeries(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels == null ? "" : labels + ",";
+        for (double bound : BUCKETS) {
+            out.append(name).append("_bucket{").append(prefix).append("le=\"").append(bound).append("\"} ")
+                    .append(histogram.countAtOrBelow((long) (bound * 1e9))).append('\n');
+        }
+        String suffix = labels == null ? "" : "{" + labels + "}";
+        out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ")
+                .append(histogram.count()).append('\n')
+                .append(name).append("_sum").append(suffix).append(' ').append(histogram.sum() / 1e9).append('\n')
+                .append(name).append("_count").append(suffix).append(' ').append(histogram.count()).append('\n');
+    }
+}
@@ -0,0 +1,7 @@
+package ru.nsu.laptev;
+
+import java.util.concurrent.CompletableFuture;
+
+// Задача генерации ключа: имя, профиль, future для ожидающих клиентов и данные для честного планировщика
+record Task(String name, KeyProfile profile, CompletableFuture<KeyData> future,
+            String client, FairTaskScheduler.TaskPriority priority, long enqueuedNanos) {}
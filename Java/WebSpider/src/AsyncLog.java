@@ -0,0 +1,73 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Асинхронный лог: строки складываются в ограниченную очередь и выводятся одним фоновым потоком,
+// так что потоки обхода не конкурируют за System.out. При переполнении строки отбрасываются.
+// Построчные сообщения о страницах выборочные: пишется только доля sampleRate из них.
+// Копия ru.nsu.laptev.AsyncLog из RSAKeysCreatorLab: общего модуля у проектов нет.
+public class AsyncLog {
+    // Строка-маркер конца: сравнивается по ссылке
+    private static final String END = new String("");
+
+    private final double sampleRate;
+    private final BlockingQueue<String> lines;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+
+    public AsyncLog(double sampleRate, int capacity) {
+        this.sampleRate = sampleRate;
+        this.lines = new ArrayBlockingQueue<>(capacity);
+
+        writer = new Thread(this::drain, "async-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void info(String line) {
+        if (!lines.offer(line)) {
+            dropped.increment();
+        }
+    }
+
+    public boolean shouldSample() {
+        return sampleRate >= 1.0 || (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    // Дописать всё, что уже в очереди, и остановить поток вывода
+    public void close() throws InterruptedException {
+        lines.put(END);
+        writer.join();
+    }
+
+    private void drain() {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try {
+            while (true) {
+                String line = lines.take();
+                if (line == END) {
+                    out.flush();
+                    return;
+                }
+                out.write(line);
+                out.write(System.lineSeparator());
+                // Сбрасываем буфер, когда очередь опустела, а не после каждой строки
+                if (lines.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException | IOException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
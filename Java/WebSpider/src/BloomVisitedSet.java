@@ -0,0 +1,89 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Приблизительное множество: фильтр Блума на AtomicLongArray, биты ставятся через CAS без блокировок.
+// Размер считается из ожидаемого числа путей n и доли ложных срабатываний p: m = -n ln p / ln²2, k = m/n ln 2.
+// Ложное срабатывание - путь считается уже найденным и не обходится. Два потока, одновременно добавляющие
+// один путь, могут оба получить true - страница будет запрошена дважды, результат от этого не меняется.
+public class BloomVisitedSet implements VisitedSet {
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final LongAdder added = new LongAdder();
+
+    public BloomVisitedSet(long expectedPaths, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("доля ложных срабатываний должна быть в (0, 1)");
+        }
+        long n = Math.max(1, expectedPaths);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64);
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = (long) words * 64;
+        this.hashCount = Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+    }
+
+    @Override
+    public boolean add(String path) {
+        long h1 = VisitedSet.hash(VisitedSet.bytes(path));
+        long h2 = VisitedSet.mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+        boolean changed = false;
+        // Двойное хеширование: k индексов из двух хешей
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = bits.get(word);
+            while ((current & mask) == 0) {
+                long witness = bits.compareAndExchange(word, current, current | mask);
+                if (witness == current) {
+                    changed = true;
+                    break;
+                }
+                current = witness;
+            }
+        }
+        if (changed) {
+            added.increment();
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean contains(String path) {
+        long h1 = VisitedSet.hash(VisitedSet.bytes(path));
+        long h2 = VisitedSet.mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Число путей, для которых add вернул true
+    @Override
+    public long size() {
+        return added.sum();
+    }
+
+    @Override
+    public void forEach(Consumer<String> action) {
+        throw new UnsupportedOperationException("фильтр Блума не хранит пути");
+    }
+
+    @Override
+    public boolean supportsIteration() {
+        return false;
+    }
+
+    public long bitCount() {
+        return bitCount;
+    }
+
+    public int hashCount() {
+        return hashCount;
+    }
+}
@@ -0,0 +1,33 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// Режим по умолчанию: обычное множество строк на куче
+public class ConcurrentVisitedSet implements VisitedSet {
+    private final Set<String> paths = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public boolean add(String path) {
+        return paths.add(path);
+    }
+
+    @Override
+    public boolean contains(String path) {
+        return paths.contains(path);
+    }
+
+    @Override
+    public long size() {
+        return paths.size();
+    }
+
+    @Override
+    public void forEach(Consumer<String> action) {
+        paths.forEach(action);
+    }
+
+    @Override
+    public boolean supportsIteration() {
+        return true;
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Набор замеров паука на StubGraphServer в том же процессе: для каждого графа - страниц в секунду,
+// p50/p99 времени запроса, пиковая занятость кучи (опрос раз в 10 мс), полное время обхода и число
+// TCP-соединений, которые открыл паук (HttpClient их не сообщает, поэтому считает сервер).
+// Результаты можно сохранить (--save) и сравнить со следующим запуском (--baseline).
+// Запуск: java CrawlBenchmark [опции] [-- опции паука], например
+//         java CrawlBenchmark --nodes=50000 --latency-ms=5 --save=base.properties -- --visited=offheap
+public class CrawlBenchmark {
+    private static final String USAGE = """
+            Использование: java CrawlBenchmark [опции] [-- опции паука]
+            Опции:
+              --scenarios=LIST      графы через запятую (по умолчанию tree,dag,chain,cycle)
+              --nodes=N             узлов в графе (по умолчанию 10000, у chain не больше 1000)
+              --branching=B         потомков у узла (по умолчанию 8)
+              --latency-ms=N        средняя задержка ответа сервера (по умолчанию 0)
+              --error-rate=P        доля ответов 503 (по умолчанию 0)
+              --payload-bytes=N     дополнительные байты в сообщении (по умолчанию 0)
+              --save=FILE           сохранить результаты
+              --baseline=FILE       сравнить с сохранёнными результатами""";
+
+    // Цепочку нельзя распараллелить, на длинной замер шёл бы слишком долго
+    private static final int MAX_CHAIN_NODES = 1000;
+
+    record Result(String scenario, int nodes, long pages, double seconds, double pagesPerSecond,
+                  double p50Ms, double p99Ms, double peakHeapMb, long requests, long errors, long connections) {}
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        List<String> spiderOptions = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--")) {
+                    spiderOptions.addAll(Arrays.asList(args).subList(i + 1, args.length));
+                    break;
+                }
+                int eq = args[i].indexOf('=');
+                if (!args[i].startsWith("--") || eq < 0) {
+                    throw new IllegalArgumentException("неизвестный аргумент " + args[i]);
+                }
+                options.put(args[i].substring(2, eq), args[i].substring(eq + 1));
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Ошибка: " + e.getMessage());
+            System.out.println(USAGE);
+            System.exit(1);
+            return;
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (String scenario : options.getOrDefault("scenarios", "tree,dag,chain,cycle").split(",")) {
+            int nodes = Integer.parseInt(options.getOrDefault("nodes", "10000"));
+            if (scenario.equals("chain")) {
+                nodes = Math.min(nodes, MAX_CHAIN_NODES);
+            }
+            StubGraphServer.Config config = StubGraphServer.Config.parse(new String[] {
+                    "--graph=" + scenario,
+                    "--nodes=" + nodes,
+                    "--branching=" + options.getOrDefault("branching", "8"),
+                    "--latency-ms=" + options.getOrDefault("latency-ms", "0"),
+                    "--error-rate=" + options.getOrDefault("error-rate", "0"),
+                    "--payload-bytes=" + options.getOrDefault("payload-bytes", "0")}, 0);
+            results.add(run(scenario, config, spiderOptions));
+        }
+
+        System.out.println();
+        System.out.printf("%-8s %8s %10s %12s %10s %10s %12s %10s %8s %11s%n", "граф", "узлов", "время, с",
+                "страниц/с", "p50, мс", "p99, мс", "пик кучи, МБ", "запросов", "503", "соединений");
+        for (Result r : results) {
+            System.out.printf("%-8s %8d %10.2f %12.0f %10.2f %10.2f %12.1f %10d %8d %11d%n", r.scenario(),
+                    r.nodes(), r.seconds(), r.pagesPerSecond(), r.p50Ms(), r.p99Ms(), r.peakHeapMb(), r.requests(),
+                    r.errors(), r.connections());
+        }
+
+        if (options.containsKey("baseline")) {
+            compare(results, load(Path.of(options.get("baseline"))));
+        }
+        if (options.containsKey("save")) {
+            save(results, Path.of(options.get("save")));
+            System.out.println("\nРезультаты сохранены в " + options.get("save"));
+        }
+    }
+
+    private static Result run(String scenario, StubGraphServer.Config config, List<String> spiderOptions)
+            throws Exception {
+        Path output = Files.createTempFile("spider-benchmark", ".txt");
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        AtomicLong peakHeap = new AtomicLong();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "heap-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try (StubGraphServer server = StubGraphServer.start(0, config)) {
+            List<String> args = new ArrayList<>(List.of(String.valueOf(server.port()), "--quiet",
+                    "--output=" + output));
+            args.addAll(spiderOptions);
+            Spider spider = new Spider(Spider.Options.parse(args.toArray(String[]::new)));
+
+            System.gc();
+            sampler.scheduleAtFixedRate(
+                    () -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+                    0, 10, TimeUnit.MILLISECONDS);
+            long start = System.nanoTime();
+            long pages = spider.crawl();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            sampler.shutdownNow();
+
+            if (pages != config.nodes()) {
+                System.err.printf("Внимание: %s - обработано %d путей из %d%n", scenario, pages, config.nodes());
+            }
+            LatencyHistogram latency = spider.scheduler().latency();
+            return new Result(scenario, config.nodes(), pages, seconds, pages / seconds,
+                    latency.percentile(0.5) / 1e6, latency.percentile(0.99) / 1e6,
+                    peakHeap.get() / 1048576.0, server.requestCount(), server.errorCount(), server.connectionCount());
+        } finally {
+            sampler.shutdownNow();
+            Files.deleteIfExists(output);
+        }
+    }
+
+    // Рост времени, p99 и памяти - плохо, рост страниц в секунду - хорошо
+    private static void compare(List<Result> results, Properties baseline) {
+        System.out.println("\nИзменение относительно базового запуска:");
+        System.out.printf("%-8s %12s %12s %12s %14s%n", "граф", "время", "страниц/с", "p99", "пик кучи");
+        for (Result r : results) {
+            String prefix = r.scenario() + ".";
+            if (!baseline.containsKey(prefix + "seconds")) {
+                System.out.printf("%-8s нет в базовом запуске%n", r.scenario());
+                continue;
+            }
+            System.out.printf("%-8s %12s %12s %12s %14s%n", r.scenario(),
+                    delta(r.seconds(), baseline, prefix + "seconds"),
+                    delta(r.pagesPerSecond(), baseline, prefix + "pagesPerSecond"),
+                    delta(r.p99Ms(), baseline, prefix + "p99Ms"),
+                    delta(r.peakHeapMb(), baseline, prefix + "peakHeapMb"));
+        }
+    }
+
+    private static String delta(double value, Properties baseline, String key) {
+        double base = Double.parseDouble(baseline.getProperty(key));
+        return base == 0 ? "-" : String.format("%+.1f%%", (value - base) / base * 100);
+    }
+
+    private static Properties load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        return properties;
+    }
+
+    private static void save(List<Result> results, Path file) throws IOException {
+        Properties properties = new Properties();
+        for (Result r : results) {
+            String prefix = r.scenario() + ".";
+            properties.setProperty(prefix + "nodes", String.valueOf(r.nodes()));
+            properties.setProperty(prefix + "seconds", String.valueOf(r.seconds()));
+            properties.setProperty(prefix + "pagesPerSecond", String.valueOf(r.pagesPerSecond()));
+            properties.setProperty(prefix + "p50Ms", String.valueOf(r.p50Ms()));
+            properties.setProperty(prefix + "p99Ms", String.valueOf(r.p99Ms()));
+            properties.setProperty(prefix + "peakHeapMb", String.valueOf(r.peakHeapMb()));
+        }
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            properties.store(writer, "CrawlBenchmark");
+        }
+    }
+}
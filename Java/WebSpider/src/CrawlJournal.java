@@ -0,0 +1,420 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Журнал обхода для продолжения после падения: append-only файлы journal-N.log и периодический снимок snapshot.bin.
+// Формат записи: magic, длина тела, CRC32 тела, тело = [тип][поля]. Недописанная запись не проходит проверку CRC
+// и при загрузке отбрасывается вместе с хвостом файла.
+// Записи копятся в буфере и сбрасываются фоновым потоком раз в FLUSH_INTERVAL_MS одним write + fsync,
+// так что после падения теряется не больше этого интервала - такие страницы просто будут запрошены заново.
+// Снимок содержит всё состояние на момент перехода к следующему файлу журнала, после него старые файлы удаляются.
+public class CrawlJournal implements Closeable {
+    private static final int MAGIC = 0x53505931; // "SPY1"
+    private static final int HEADER_SIZE = 12;
+    private static final byte DISCOVERED = 1;
+    private static final byte COMPLETED = 2;
+    private static final byte SNAPSHOT_BEGIN = 3;
+    private static final byte SNAPSHOT_END = 4;
+
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String JOURNAL_SUFFIX = ".log";
+    private static final String SNAPSHOT = "snapshot.bin";
+    private static final long FLUSH_INTERVAL_MS = 100;
+    private static final int SNAPSHOT_EVERY = 10_000;
+
+    private final Path directory;
+    // Живое состояние паука: снимок читает его напрямую, без копии
+    private final VisitedSet visited;
+    private final VisitedSet completed;
+    // Сюда при загрузке передаются сообщения уже обработанных страниц
+    private final BiConsumer<String, String> results;
+    private final ScheduledExecutorService flusher;
+
+    // Буфер записей, изменяется только под this
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private int recordsSinceSnapshot;
+
+    // Файл журнала, изменяется только под flushLock
+    private final Object flushLock = new Object();
+    private FileChannel channel;
+    private int generation;
+    private long syncs;
+
+    private CrawlJournal(Path directory, VisitedSet visited, VisitedSet completed,
+                         BiConsumer<String, String> results) {
+        this.directory = directory;
+        this.visited = visited;
+        this.completed = completed;
+        this.results = results;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "crawl-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // resume = true: состояние из каталога загружается в visited, completed и results, иначе каталог очищается.
+    // Снимку нужен обход visited, поэтому фильтр Блума с журналом не используется
+    public static CrawlJournal open(Path directory, boolean resume, VisitedSet visited, VisitedSet completed,
+                                    BiConsumer<String, String> results) throws IOException {
+        if (!visited.supportsIteration()) {
+            throw new IllegalArgumentException("журнал требует точного множества visited (heap или offheap)");
+        }
+        Files.createDirectories(directory);
+        CrawlJournal journal = new CrawlJournal(directory, visited, completed, results);
+        if (resume) {
+            journal.load();
+        } else {
+            for (Path path : journal.files()) {
+                Files.delete(path);
+            }
+            Files.deleteIfExists(directory.resolve(SNAPSHOT));
+        }
+        synchronized (journal.flushLock) {
+            journal.openJournal(journal.generation + 1);
+        }
+        journal.flusher.scheduleWithFixedDelay(journal::flushQuietly, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+        return journal;
+    }
+
+    public void discovered(String path) {
+        append(encode(DISCOVERED, path, null, List.of()));
+    }
+
+    // Страница обработана; новые пути пишутся той же записью, чтобы после падения не потерять их
+    public void completed(String path, String message, List<String> discovered) {
+        append(encode(COMPLETED, path, message, discovered));
+    }
+
+    public long syncCount() {
+        synchronized (flushLock) {
+            return syncs;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (flushLock) {
+            flush();
+            channel.close();
+        }
+    }
+
+    private synchronized void append(byte[] record) {
+        if (pending.remaining() < record.length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + record.length));
+            pending.flip();
+            pending = larger.put(pending);
+        }
+        pending.put(record);
+        recordsSinceSnapshot++;
+    }
+
+    private synchronized ByteBuffer takePending() {
+        ByteBuffer taken = pending.flip();
+        pending = ByteBuffer.allocate(taken.capacity());
+        return taken;
+    }
+
+    private synchronized boolean snapshotDue() {
+        if (recordsSinceSnapshot < SNAPSHOT_EVERY) {
+            return false;
+        }
+        recordsSinceSnapshot = 0;
+        return true;
+    }
+
+    private void flushQuietly() {
+        try {
+            synchronized (flushLock) {
+                flush();
+            }
+            if (snapshotDue()) {
+                snapshot();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Ошибка записи журнала: " + e.getMessage());
+        }
+    }
+
+    // Вызывается под flushLock: всё накопленное одним write и одним fsync
+    private void flush() throws IOException {
+        ByteBuffer buffer = takePending();
+        if (!buffer.hasRemaining()) {
+            return;
+        }
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        syncs++;
+    }
+
+    // Переключаемся на новый файл журнала и пишем снимок: обработанные страницы с сообщениями переносятся
+    // потоком из старого снимка и покрытых файлов журнала, остальные пути из visited - как найденные.
+    // Состояние меняется раньше, чем запись попадает в журнал, поэтому visited, прочитанный после
+    // переключения, содержит всё из старых файлов. Обработанной считается только страница, чья запись COMPLETED
+    // попала в снимок: страница, обработанная уже после переключения, записана лишь в новый файл и могла
+    // не дойти до диска. Записи, попавшие и в снимок, и в новый файл, при загрузке просто повторятся.
+    // Сообщения в памяти не держим - ими владеет ResultSink.
+    private void snapshot() throws IOException {
+        int covered;
+        synchronized (flushLock) {
+            flush();
+            channel.close();
+            covered = generation;
+            openJournal(generation + 1);
+        }
+
+        List<Path> sources = new ArrayList<>();
+        Path previous = directory.resolve(SNAPSHOT);
+        if (Files.exists(previous)) {
+            sources.add(previous);
+        }
+        for (Path path : files()) {
+            if (generationOf(path) <= covered) {
+                sources.add(path);
+            }
+        }
+
+        Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer[] buffer = {ByteBuffer.allocate(64 * 1024)};
+            buffer[0] = put(out, buffer[0], encodeSnapshotBegin(covered));
+            Set<String> snapshotted = new HashSet<>();
+            for (Path source : sources) {
+                read(source, (type, body) -> {
+                    if (type == COMPLETED) {
+                        String page = readString(body);
+                        snapshotted.add(page);
+                        buffer[0] = put(out, buffer[0], encode(COMPLETED, page, readString(body), List.of()));
+                    }
+                });
+            }
+            visited.forEach(path -> {
+                if (!snapshotted.contains(path)) {
+                    try {
+                        buffer[0] = put(out, buffer[0], encode(DISCOVERED, path, null, List.of()));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+            buffer[0] = put(out, buffer[0], encode(SNAPSHOT_END, "", null, List.of()));
+            buffer[0].flip();
+            while (buffer[0].hasRemaining()) {
+                out.write(buffer[0]);
+            }
+            out.force(true);
+        }
+        Files.move(temporary, previous, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+
+        for (Path path : files()) {
+            if (generationOf(path) <= covered) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private static ByteBuffer put(FileChannel out, ByteBuffer buffer, byte[] record) throws IOException {
+        if (buffer.remaining() < record.length) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+            if (buffer.capacity() < record.length) {
+                buffer = ByteBuffer.allocate(record.length);
+            }
+        }
+        return buffer.put(record);
+    }
+
+    // Снимок, затем файлы журнала новее него по порядку. Снимок без SNAPSHOT_END не принимается,
+    // поэтому сначала он только проверяется и применяется вторым проходом
+    private void load() throws IOException {
+        int covered = 0;
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            int[] begin = {-1};
+            boolean[] ended = {false};
+            read(snapshot, (type, body) -> {
+                if (type == SNAPSHOT_BEGIN) {
+                    begin[0] = body.getInt();
+                } else if (type == SNAPSHOT_END) {
+                    ended[0] = true;
+                }
+            });
+            if (begin[0] >= 0 && ended[0]) {
+                read(snapshot, this::apply);
+                covered = begin[0];
+            } else {
+                System.err.println("Журнал: снимок неполный, используется только журнал");
+            }
+        }
+        generation = covered;
+
+        int replayed = 0;
+        for (Path path : files()) {
+            int id = generationOf(path);
+            if (id > covered) {
+                read(path, this::apply);
+                replayed++;
+            }
+            generation = Math.max(generation, id);
+        }
+
+        System.out.printf("Журнал загружен: %d путей, из них обработано %d (файлов журнала: %d)%n",
+                visited.size(), completed.size(), replayed);
+    }
+
+    // Повторно обработанная страница встречается в журнале дважды, в результаты она попадает один раз
+    private void apply(byte type, ByteBuffer body) throws IOException {
+        switch (type) {
+            case SNAPSHOT_BEGIN, SNAPSHOT_END -> {
+            }
+            case DISCOVERED -> visited.add(readString(body));
+            case COMPLETED -> {
+                String page = readString(body);
+                String message = readString(body);
+                visited.add(page);
+                if (completed.add(page)) {
+                    results.accept(page, message);
+                }
+                for (int i = body.getInt(); i > 0; i--) {
+                    visited.add(readString(body));
+                }
+            }
+            default -> throw new IOException("Неизвестный тип записи " + type);
+        }
+    }
+
+    private interface RecordHandler {
+        void accept(byte type, ByteBuffer body) throws IOException;
+    }
+
+    // Читаем записи до первой пустой или повреждённой
+    private static void read(Path path, RecordHandler handler) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        }
+
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.capacity()) {
+            if (buffer.getInt(position) != MAGIC) {
+                break;
+            }
+            int bodyLength = buffer.getInt(position + 4);
+            if (bodyLength <= 0 || position + HEADER_SIZE + bodyLength > buffer.capacity()) {
+                break;
+            }
+            ByteBuffer body = buffer.slice(position + HEADER_SIZE, bodyLength);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(position + 8)) {
+                System.err.println("Журнал: повреждённая запись в " + path.getFileName() + " на позиции " + position);
+                break;
+            }
+            position += HEADER_SIZE + bodyLength;
+            handler.accept(body.get(), body);
+        }
+    }
+
+    private void openJournal(int id) throws IOException {
+        generation = id;
+        channel = FileChannel.open(directory.resolve(JOURNAL_PREFIX + id + JOURNAL_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        syncDirectory();
+    }
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.filter(path -> {
+                        String name = path.getFileName().toString();
+                        return name.startsWith(JOURNAL_PREFIX) && name.endsWith(JOURNAL_SUFFIX);
+                    })
+                    .sorted(Comparator.comparingInt(CrawlJournal::generationOf))
+                    .toList();
+        }
+    }
+
+    private static int generationOf(Path path) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(JOURNAL_PREFIX.length(), name.length() - JOURNAL_SUFFIX.length()));
+    }
+
+    private static byte[] encode(byte type, String path, String message, List<String> discovered) {
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        byte[] messageBytes = message != null ? message.getBytes(StandardCharsets.UTF_8) : null;
+        byte[][] discoveredBytes = new byte[discovered.size()][];
+        int bodyLength = 1 + 4 + pathBytes.length;
+        if (type == COMPLETED) {
+            bodyLength += 4 + messageBytes.length + 4;
+            for (int i = 0; i < discoveredBytes.length; i++) {
+                discoveredBytes[i] = discovered.get(i).getBytes(StandardCharsets.UTF_8);
+                bodyLength += 4 + discoveredBytes[i].length;
+            }
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bodyLength);
+        record.putInt(MAGIC).putInt(bodyLength).putInt(0);
+        record.put(type).putInt(pathBytes.length).put(pathBytes);
+        if (type == COMPLETED) {
+            record.putInt(messageBytes.length).put(messageBytes);
+            record.putInt(discoveredBytes.length);
+            for (byte[] bytes : discoveredBytes) {
+                record.putInt(bytes.length).put(bytes);
+            }
+        }
+        return seal(record);
+    }
+
+    private static byte[] encodeSnapshotBegin(int covered) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + 5);
+        record.putInt(MAGIC).putInt(5).putInt(0);
+        record.put(SNAPSHOT_BEGIN).putInt(covered);
+        return seal(record);
+    }
+
+    private static byte[] seal(ByteBuffer record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, record.capacity() - HEADER_SIZE);
+        record.putInt(8, (int) crc.getValue());
+        return record.array();
+    }
+
+    private static String readString(ByteBuffer body) {
+        byte[] bytes = new byte[body.getInt()];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Создание и переименование файлов становится надёжным только после fsync каталога
+    private void syncDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+// Метрики обхода: страницы, размеры ответов, время обработки пути (от отправки до разбора, с повторами),
+// распределение по глубине. Всё пишется без блокировок. Раз в период печатается одна строка прогресса,
+// в конце можно записать сводку в JSON.
+public class CrawlMetrics {
+    private static final int MAX_DEPTH = 63;
+
+    private final FetchScheduler scheduler;
+    // Пути, найденные и ещё не обработанные
+    private final IntSupplier pending;
+
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    // Размер ответа в байтах - та же лог-линейная гистограмма, что и для времени
+    private final LatencyHistogram responseSizes = new LatencyHistogram();
+    private final LatencyHistogram pathTimes = new LatencyHistogram();
+    // Последняя ячейка - глубина MAX_DEPTH и больше
+    private final AtomicLongArray depths = new AtomicLongArray(MAX_DEPTH + 1);
+    // Пути, продолженные из журнала: их глубина не сохраняется
+    private final LongAdder unknownDepth = new LongAdder();
+
+    private final long startNanos = System.nanoTime();
+    private ScheduledExecutorService reporter;
+    private long lastPages;
+    private long lastReportNanos = startNanos;
+
+    public CrawlMetrics(FetchScheduler scheduler, IntSupplier pending) {
+        this.scheduler = scheduler;
+        this.pending = pending;
+    }
+
+    // depth < 0 - глубина неизвестна
+    public void pageDone(int depth, long responseBytes, long elapsedNanos) {
+        pages.increment();
+        bytes.add(responseBytes);
+        responseSizes.record(responseBytes);
+        pathTimes.record(elapsedNanos);
+        if (depth < 0) {
+            unknownDepth.increment();
+        } else {
+            depths.incrementAndGet(Math.min(depth, MAX_DEPTH));
+        }
+    }
+
+    public void pageFailed() {
+        failed.increment();
+    }
+
+    public long pageCount() {
+        return pages.sum();
+    }
+
+    // Строка прогресса в stderr раз в periodSeconds, чтобы не смешиваться с результатами в stdout
+    public void startProgress(long periodSeconds) {
+        if (periodSeconds <= 0) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "crawl-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> System.err.println(progressLine()),
+                periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+    }
+
+    // Скорость считается за последний период, а не с начала обхода
+    synchronized String progressLine() {
+        long now = System.nanoTime();
+        long done = pages.sum();
+        double rate = (done - lastPages) / Math.max(1e-9, (now - lastReportNanos) / 1e9);
+        lastPages = done;
+        lastReportNanos = now;
+
+        LatencyHistogram latency = scheduler.latency();
+        return String.format(Locale.ROOT,
+                "[%.1f с] страниц %d (%.0f/с), ошибок %d, ждут %d, запросов в полёте %d (лимит %d), "
+                        + "p50 %.1f мс, p99 %.1f мс, получено %.1f МБ",
+                (now - startNanos) / 1e9, done, rate, failed.sum(),
+                Math.max(0, pending.getAsInt() - scheduler.activeRequests()), scheduler.activeRequests(),
+                scheduler.currentLimit(), latency.percentile(0.5) / 1e6, latency.percentile(0.99) / 1e6,
+                bytes.sum() / 1048576.0);
+    }
+
+    public void printDepths() {
+        System.out.println("Страниц по глубине:");
+        for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+            long count = depths.get(depth);
+            if (count > 0) {
+                System.out.printf("  %s%d: %d%n", depth == MAX_DEPTH ? ">=" : "", depth, count);
+            }
+        }
+        if (unknownDepth.sum() > 0) {
+            System.out.printf("  продолжено из журнала: %d%n", unknownDepth.sum());
+        }
+    }
+
+    public void writeJson(Path file) throws IOException {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        LatencyHistogram latency = scheduler.latency();
+        StringBuilder json = new StringBuilder("{\n");
+        field(json, "seconds", String.format(Locale.ROOT, "%.3f", seconds));
+        field(json, "pages", pages.sum());
+        field(json, "failedPages", failed.sum());
+        field(json, "pagesPerSecond", String.format(Locale.ROOT, "%.1f", pages.sum() / seconds));
+        field(json, "bytes", bytes.sum());
+        field(json, "requests", scheduler.requestCount());
+        field(json, "retries", scheduler.retryCount());
+        field(json, "failedRequests", scheduler.failureCount());
+        field(json, "finalLimit", scheduler.currentLimit());
+        json.append("  \"fetchLatencyMs\": ").append(percentiles(latency, 1e6)).append(",\n");
+        json.append("  \"pathTimeMs\": ").append(percentiles(pathTimes, 1e6)).append(",\n");
+        json.append("  \"responseBytes\": ").append(percentiles(responseSizes, 1)).append(",\n");
+        field(json, "unknownDepth", unknownDepth.sum());
+        json.append("  \"depths\": {");
+        String separator = "";
+        for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+            long count = depths.get(depth);
+            if (count > 0) {
+                json.append(separator).append('"').append(depth).append("\": ").append(count);
+                separator = ", ";
+            }
+        }
+        json.append("}\n}\n");
+
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+    }
+
+    private static void field(StringBuilder json, String name, Object value) {
+        json.append("  \"").append(name).append("\": ").append(value).append(",\n");
+    }
+
+    private static String percentiles(LatencyHistogram histogram, double scale) {
+        return String.format(Locale.ROOT, "{\"p50\": %.3f, \"p99\": %.3f, \"max\": %.3f, \"mean\": %.3f}",
+                histogram.percentile(0.5) / scale, histogram.percentile(0.99) / scale,
+                histogram.max() / scale, histogram.mean() / scale);
+    }
+}
@@ -0,0 +1,293 @@
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Планировщик запросов паука: ограничивает число одновременных запросов и подстраивает лимит по AIMD.
+// Успешный быстрый ответ увеличивает лимит примерно на единицу за "раунд" (+1/limit на ответ),
+// ошибка, таймаут или ответ медленнее targetLatency уменьшают его вдвое, но не чаще раза за раунд.
+// Неудачные запросы повторяются с экспоненциальной задержкой со случайным разбросом (full jitter).
+// Кроме общего лимита у каждого хоста есть постоянный предел одновременных запросов.
+// Соединениями планировщик не управляет: их открывает и держит в пуле HttpClient.
+public class FetchScheduler {
+    private static final long BACKOFF_BASE_MS = 100;
+    private static final long BACKOFF_CAP_MS = 10_000;
+
+    private final HttpClient client;
+    private final int maxInFlight;
+    private final int maxRetries;
+    private final long targetLatencyNanos;
+
+    // Запросы, ждущие свободного места, в порядке поступления
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private long lastDecreaseNanos;
+    private long smoothedLatencyNanos;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    // Время каждой попытки, включая неудачные
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder http2Responses = new LongAdder();
+
+    // Предел одновременных запросов к одному хосту. По HTTP/1.1 занятых соединений с хостом не больше,
+    // но сколько их открыто и переиспользуется, решает пул HttpClient
+    private final int maxRequestsPerHost;
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+    public FetchScheduler(HttpClient client, int maxInFlight, int initialLimit, int maxRetries,
+                          long targetLatencyMillis, int maxRequestsPerHost) {
+        this.client = client;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        this.maxInFlight = maxInFlight;
+        this.maxRetries = maxRetries;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.limit = Math.max(1, Math.min(initialLimit, maxInFlight));
+    }
+
+    // Асинхронный запрос: future с ответом 200 или с исключением, если все попытки исчерпаны.
+    // Потоки не блокируются ни в ожидании места, ни в паузе перед повтором
+    public <T> CompletableFuture<HttpResponse<T>> fetch(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        attempt(request, handler, 0, result);
+        return result;
+    }
+
+    private <T> void attempt(HttpRequest request, HttpResponse.BodyHandler<T> handler, int attempt,
+                             CompletableFuture<HttpResponse<T>> result) {
+        // Сначала место у хоста, потом общее: иначе запрос, ждущий занятый хост, держал бы общее место
+        Host host = hosts.computeIfAbsent(hostOf(request), key -> new Host());
+        host.acquire().thenCompose(ignored -> acquire()).thenRun(() -> {
+            long start = System.nanoTime();
+            requests.increment();
+            host.requests.increment();
+            CompletableFuture<HttpResponse<T>> sent;
+            try {
+                sent = client.sendAsync(request, handler);
+            } catch (RuntimeException e) {
+                // sendAsync отверг запрос сразу (например, IllegalArgumentException на неподходящий URI):
+                // запрос никуда не ушёл, повтор не поможет, но места у хоста и общее надо вернуть
+                host.release();
+                release();
+                failures.increment();
+                result.completeExceptionally(e);
+                return;
+            }
+            sent.whenComplete((response, error) -> {
+                long elapsed = System.nanoTime() - start;
+                latency.record(elapsed);
+                host.release();
+                if (error != null) {
+                    release(elapsed, false);
+                    if (attempt >= maxRetries) {
+                        failures.increment();
+                        result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                        return;
+                    }
+                    retries.increment();
+                    retryLater(request, handler, attempt, Optional.empty(), result);
+                    return;
+                }
+
+                if (response.version() == HttpClient.Version.HTTP_2) {
+                    http2Responses.increment();
+                }
+                int status = response.statusCode();
+                release(elapsed, status < 500 && status != 429);
+                if (status == 200) {
+                    result.complete(response);
+                    return;
+                }
+                if (!isRetryable(status) || attempt >= maxRetries) {
+                    failures.increment();
+                    result.completeExceptionally(
+                            new IOException("HTTP " + status + " после " + (attempt + 1) + " попыток"));
+                    return;
+                }
+                retries.increment();
+                retryLater(request, handler, attempt, response.headers().firstValue("Retry-After"), result);
+            });
+        });
+    }
+
+    public int currentLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Запросов, отправленных и ещё не получивших ответ
+    public int activeRequests() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long requestCount() {
+        return requests.sum();
+    }
+
+    public long retryCount() {
+        return retries.sum();
+    }
+
+    public long failureCount() {
+        return failures.sum();
+    }
+
+    public LatencyHistogram latency() {
+        return latency;
+    }
+
+    public long http2Count() {
+        return http2Responses.sum();
+    }
+
+    // Хост -> [запросов, наибольшее число одновременных запросов]
+    public Map<String, long[]> hostStats() {
+        Map<String, long[]> stats = new TreeMap<>();
+        hosts.forEach((name, host) -> stats.put(name, new long[] {host.requests.sum(), host.peak()}));
+        return stats;
+    }
+
+    private static String hostOf(HttpRequest request) {
+        return request.uri().getHost() + ":" + request.uri().getPort();
+    }
+
+    // Остальные 4xx означают, что повтор не поможет
+    private static boolean isRetryable(int status) {
+        return status >= 500 || status == 429 || status == 408;
+    }
+
+    // Место свободно - future уже завершён, иначе завершится из release()
+    private CompletableFuture<Void> acquire() {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit && waiters.isEmpty()) {
+                inFlight++;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long latencyNanos, boolean success) {
+        lock.lock();
+        try {
+            smoothedLatencyNanos = smoothedLatencyNanos == 0
+                    ? latencyNanos
+                    : (smoothedLatencyNanos * 7 + latencyNanos) / 8;
+
+            long now = System.nanoTime();
+            if (!success || latencyNanos > targetLatencyNanos) {
+                // Одна перегрузка обычно ломает сразу много запросов - уменьшаем не чаще раза за раунд
+                if (now - lastDecreaseNanos > smoothedLatencyNanos) {
+                    limit = Math.max(1, limit / 2);
+                    lastDecreaseNanos = now;
+                }
+            } else if (limit < maxInFlight) {
+                limit = Math.min(maxInFlight, limit + 1 / limit);
+            }
+        } finally {
+            lock.unlock();
+        }
+        release();
+    }
+
+    // Возврат места без поправки лимита: запрос так и не был отправлен
+    private void release() {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        lock.lock();
+        try {
+            inFlight--;
+            // Лимит мог вырасти - выдаём все освободившиеся места по очереди ожидания
+            while (inFlight < (int) limit && !waiters.isEmpty()) {
+                inFlight++;
+                granted.add(waiters.poll());
+            }
+        } finally {
+            lock.unlock();
+        }
+        // Продолжения запускаем вне блокировки
+        granted.forEach(waiter -> waiter.complete(null));
+    }
+
+    private <T> void retryLater(HttpRequest request, HttpResponse.BodyHandler<T> handler, int attempt,
+                                Optional<String> retryAfter, CompletableFuture<HttpResponse<T>> result) {
+        long delay = ThreadLocalRandom.current().nextLong(
+                Math.min(BACKOFF_CAP_MS, BACKOFF_BASE_MS << Math.min(attempt, 20)) + 1);
+        if (retryAfter.isPresent()) {
+            try {
+                delay = Math.max(delay, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.get().trim())));
+            } catch (NumberFormatException ignored) {
+                // Retry-After в виде даты не поддерживаем
+            }
+        }
+        Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS);
+        delayed.execute(() -> attempt(request, handler, attempt + 1, result));
+    }
+
+    // Места у одного хоста: та же очередь ожидания, что и у общего лимита, но лимит постоянный
+    private final class Host {
+        private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+        private final LongAdder requests = new LongAdder();
+        private int inFlight;
+        private int peak;
+
+        synchronized CompletableFuture<Void> acquire() {
+            if (inFlight < maxRequestsPerHost) {
+                peak = Math.max(peak, ++inFlight);
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        }
+
+        void release() {
+            CompletableFuture<Void> next;
+            synchronized (this) {
+                next = waiters.poll();
+                if (next == null) {
+                    inFlight--;
+                }
+            }
+            // Место переходит следующему без уменьшения счётчика; продолжение запускаем вне монитора
+            if (next != null) {
+                next.complete(null);
+            }
+        }
+
+        synchronized int peak() {
+            return peak;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Точное множество без String на каждый путь: UTF-8 байты путей дописываются в direct-буферы (арену),
+// а таблица - массив long с открытой адресацией и линейным пробированием.
+// Ячейка: старшие 24 бита хеша | смещение записи в арене + 1 (0 - пустая ячейка).
+// По старшим битам хеша сравнение с чужими записями почти всегда заканчивается без чтения арены.
+// Множество разбито на полосы по младшим битам хеша, у каждой своя таблица, арена и монитор.
+public class OffHeapVisitedSet implements VisitedSet {
+    private static final int STRIPES = 64;
+    private static final int CHUNK_BITS = 24;
+    private static final int FIRST_CHUNK_SIZE = 1 << 16;
+    private static final int MAX_CHUNK_SIZE = 1 << 20;
+    private static final int MAX_PATH_BYTES = 1 << 16;
+    private static final long OFFSET_MASK = (1L << 40) - 1;
+    private static final double MAX_LOAD = 0.6;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public OffHeapVisitedSet(long expectedPaths) {
+        int perStripe = (int) Math.min(1 << 28, Math.max(16, expectedPaths / STRIPES));
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    @Override
+    public boolean add(String path) {
+        byte[] bytes = VisitedSet.bytes(path);
+        if (bytes.length > MAX_PATH_BYTES) {
+            throw new IllegalArgumentException("слишком длинный путь: " + bytes.length + " байт");
+        }
+        long hash = VisitedSet.hash(bytes);
+        return stripe(hash).add(bytes, hash);
+    }
+
+    @Override
+    public boolean contains(String path) {
+        byte[] bytes = VisitedSet.bytes(path);
+        long hash = VisitedSet.hash(bytes);
+        return stripe(hash).contains(bytes, hash);
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void forEach(Consumer<String> action) {
+        for (Stripe stripe : stripes) {
+            stripe.forEach(action);
+        }
+    }
+
+    @Override
+    public boolean supportsIteration() {
+        return true;
+    }
+
+    // Байты вне кучи, занятые аренами всех полос
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.arenaBytes();
+        }
+        return bytes;
+    }
+
+    private Stripe stripe(long hash) {
+        return stripes[(int) (hash & (STRIPES - 1))];
+    }
+
+    private static final class Stripe {
+        private long[] slots;
+        private int size;
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private ByteBuffer current;
+
+        Stripe(int expected) {
+            slots = new long[Integer.highestOneBit((int) Math.min(1 << 29, expected / MAX_LOAD) * 2 - 1)];
+        }
+
+        synchronized boolean add(byte[] bytes, long hash) {
+            int index = find(bytes, hash);
+            if (slots[index] != 0) {
+                return false;
+            }
+            slots[index] = (tag(hash) << 40) | (append(bytes) + 1);
+            if (++size > slots.length * MAX_LOAD) {
+                grow();
+            }
+            return true;
+        }
+
+        synchronized boolean contains(byte[] bytes, long hash) {
+            return slots[find(bytes, hash)] != 0;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long arenaBytes() {
+            long bytes = 0;
+            for (ByteBuffer chunk : chunks) {
+                bytes += chunk.capacity();
+            }
+            return bytes;
+        }
+
+        synchronized void forEach(Consumer<String> action) {
+            for (long slot : slots) {
+                if (slot != 0) {
+                    action.accept(new String(read((slot & OFFSET_MASK) - 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        // Ячейка с этим путём или пустая ячейка, куда его можно положить
+        private int find(byte[] bytes, long hash) {
+            int mask = slots.length - 1;
+            long tag = tag(hash);
+            int index = (int) (hash >>> 6) & mask;
+            while (true) {
+                long slot = slots[index];
+                if (slot == 0 || (slot >>> 40 == tag && matches((slot & OFFSET_MASK) - 1, bytes))) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+
+        private static long tag(long hash) {
+            return hash >>> 40;
+        }
+
+        // Запись в арене: [длина int][байты], записи не пересекают границу буфера.
+        // Буферы растут вдвое до MAX_CHUNK_SIZE, чтобы маленький обход не занимал по мегабайту на полосу
+        private long append(byte[] bytes) {
+            int length = 4 + bytes.length;
+            if (current == null || current.remaining() < length) {
+                int size = current == null ? FIRST_CHUNK_SIZE : Math.min(MAX_CHUNK_SIZE, current.capacity() * 2);
+                current = ByteBuffer.allocateDirect(Math.max(size, length));
+                chunks.add(current);
+            }
+            long offset = ((long) (chunks.size() - 1) << CHUNK_BITS) | current.position();
+            current.putInt(bytes.length).put(bytes);
+            return offset;
+        }
+
+        private boolean matches(long offset, byte[] bytes) {
+            ByteBuffer chunk = chunks.get((int) (offset >>> CHUNK_BITS));
+            int position = (int) (offset & ((1 << CHUNK_BITS) - 1));
+            if (chunk.getInt(position) != bytes.length) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                if (chunk.get(position + 4 + i) != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private byte[] read(long offset) {
+            ByteBuffer chunk = chunks.get((int) (offset >>> CHUNK_BITS));
+            int position = (int) (offset & ((1 << CHUNK_BITS) - 1));
+            byte[] bytes = new byte[chunk.getInt(position)];
+            chunk.get(position + 4, bytes);
+            return bytes;
+        }
+
+        // Полный хеш в ячейке не хранится - при росте таблицы пересчитываем его по байтам из арены
+        private void grow() {
+            long[] old = slots;
+            slots = new long[old.length * 2];
+            int mask = slots.length - 1;
+            for (long slot : old) {
+                if (slot == 0) {
+                    continue;
+                }
+                long hash = VisitedSet.hash(read((slot & OFFSET_MASK) - 1));
+                int index = (int) (hash >>> 6) & mask;
+                while (slots[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                slots[index] = slot;
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+// Потоковый разбор ответа страницы {"message": "...", "successors": ["...", ...]}.
+// Байты разбираются по мере прихода из HttpClient, тело целиком в памяти не собирается.
+// Строки собираются только для нужных полей верхнего уровня, остальные значения (в том числе вложенные)
+// пропускаются. Поддерживаются все escape-последовательности JSON и многобайтовый UTF-8 на границе буферов.
+public class PageParser {
+    public record Page(String message, List<String> successors, long bytes) {}
+
+    private static final int FIELD_NONE = 0;
+    private static final int FIELD_MESSAGE = 1;
+    private static final int FIELD_SUCCESSORS = 2;
+
+    // Состояние разбора сохраняется между кусками тела
+    private int depth;
+    private boolean expectKey;
+    private int field = FIELD_NONE;
+    private int pendingField = FIELD_NONE;
+    private boolean inSuccessors;
+
+    private boolean inString;
+    private boolean capturing;
+    private boolean escape;
+    private int unicodeDigits = -1;
+    private int unicodeValue;
+    private int utf8Remaining;
+    private int utf8CodePoint;
+    private final StringBuilder text = new StringBuilder();
+
+    private String message;
+    private final List<String> successors = new ArrayList<>();
+    private long bytes;
+
+    // Обработчик тела для HttpClient: страница для ответа 200, для остальных тело отбрасывается
+    public static HttpResponse.BodyHandler<Page> bodyHandler() {
+        return info -> info.statusCode() == 200
+                ? new Subscriber()
+                : HttpResponse.BodySubscribers.replacing(null);
+    }
+
+    public void feed(ByteBuffer buffer) {
+        bytes += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (inString) {
+                stringByte(b);
+            } else {
+                structuralByte(b);
+            }
+        }
+    }
+
+    public Page result() throws IOException {
+        if (depth != 0 || inString) {
+            throw new IOException("Неполный JSON");
+        }
+        return new Page(message, successors, bytes);
+    }
+
+    private void structuralByte(byte b) {
+        switch (b) {
+            case '"' -> {
+                inString = true;
+                capturing = (depth == 1 && expectKey)
+                        || (depth == 1 && field == FIELD_MESSAGE)
+                        || (depth == 2 && inSuccessors);
+                text.setLength(0);
+            }
+            case '{', '[' -> {
+                depth++;
+                if (depth == 1) {
+                    expectKey = true;
+                } else if (depth == 2 && b == '[' && field == FIELD_SUCCESSORS) {
+                    inSuccessors = true;
+                }
+            }
+            case '}', ']' -> {
+                depth--;
+                if (depth == 1) {
+                    inSuccessors = false;
+                }
+            }
+            case ':' -> {
+                if (depth == 1) {
+                    expectKey = false;
+                    field = pendingField;
+                    pendingField = FIELD_NONE;
+                }
+            }
+            case ',' -> {
+                if (depth == 1) {
+                    expectKey = true;
+                    field = FIELD_NONE;
+                }
+            }
+            default -> {
+                // пробелы, числа, true/false/null
+            }
+        }
+    }
+
+    private void stringByte(byte b) {
+        if (unicodeDigits >= 0) {
+            unicodeValue = (unicodeValue << 4) | Character.digit(b, 16);
+            if (++unicodeDigits == 4) {
+                // Суррогатные пары \\uD83D\\uDE00 складываются в StringBuilder сами
+                append((char) unicodeValue);
+                unicodeDigits = -1;
+            }
+            return;
+        }
+        if (escape) {
+            escape = false;
+            switch (b) {
+                case 'b' -> append('\b');
+                case 'f' -> append('\f');
+                case 'n' -> append('\n');
+                case 'r' -> append('\r');
+                case 't' -> append('\t');
+                case 'u' -> {
+                    unicodeDigits = 0;
+                    unicodeValue = 0;
+                }
+                default -> append((char) b); // \" \\ \/
+            }
+            return;
+        }
+        if (b == '\\') {
+            escape = true;
+            return;
+        }
+        if (b == '"') {
+            inString = false;
+            endString();
+            return;
+        }
+        if (!capturing) {
+            return;
+        }
+
+        // UTF-8: код символа может прийти в разных буферах
+        if (b >= 0) {
+            text.append((char) b);
+        } else if ((b & 0xC0) == 0x80) {
+            utf8CodePoint = (utf8CodePoint << 6) | (b & 0x3F);
+            if (--utf8Remaining == 0) {
+                text.appendCodePoint(utf8CodePoint);
+            }
+        } else if ((b & 0xE0) == 0xC0) {
+            utf8CodePoint = b & 0x1F;
+            utf8Remaining = 1;
+        } else if ((b & 0xF0) == 0xE0) {
+            utf8CodePoint = b & 0x0F;
+            utf8Remaining = 2;
+        } else {
+            utf8CodePoint = b & 0x07;
+            utf8Remaining = 3;
+        }
+    }
+
+    private void append(char c) {
+        if (capturing) {
+            text.append(c);
+        }
+    }
+
+    private void endString() {
+        if (!capturing) {
+            return;
+        }
+        if (depth == 1 && expectKey) {
+            pendingField = contentEquals("message") ? FIELD_MESSAGE
+                    : contentEquals("successors") ? FIELD_SUCCESSORS
+                    : FIELD_NONE;
+        } else if (depth == 1) {
+            message = text.toString();
+        } else {
+            successors.add(text.toString());
+        }
+    }
+
+    private boolean contentEquals(String key) {
+        return key.contentEquals(text);
+    }
+
+    // Подписчик на тело ответа: куски передаются парсеру сразу, без накопления
+    private static final class Subscriber implements HttpResponse.BodySubscriber<Page> {
+        private final PageParser parser = new PageParser();
+        private final CompletableFuture<Page> body = new CompletableFuture<>();
+
+        @Override
+        public CompletionStage<Page> getBody() {
+            return body;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            for (ByteBuffer buffer : buffers) {
+                parser.feed(buffer);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            body.completeExceptionally(error);
+        }
+
+        @Override
+        public void onComplete() {
+            try {
+                body.complete(parser.result());
+            } catch (IOException e) {
+                body.completeExceptionally(e);
+            }
+        }
+    }
+}
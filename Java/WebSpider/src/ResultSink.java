@@ -0,0 +1,222 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// Результаты обхода с ограниченной памятью: у каждого потока свой буфер, к которому обращается только он сам,
+// поэтому add идёт без блокировок. Заполненный буфер сортируется и сбрасывается на диск отдельным прогоном.
+// В конце прогоны и остатки буферов сливаются k-путевым слиянием прямо в выходной канал,
+// одинаковые пути (страница, запрошенная дважды) выводятся один раз.
+public class ResultSink implements Closeable {
+    private static final int RUN_SIZE = 10_000;
+    private static final Comparator<Entry> BY_PATH = Comparator.comparing(Entry::path);
+
+    private final Path spillDirectory;
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(this::newBuffer);
+    // Все буферы, чтобы в конце забрать их остатки
+    private final Queue<Buffer> allBuffers = new ConcurrentLinkedQueue<>();
+    private final Queue<Path> runs = new ConcurrentLinkedQueue<>();
+    private final LongAdder added = new LongAdder();
+
+    public ResultSink() throws IOException {
+        this.spillDirectory = Files.createTempDirectory("spider-results");
+    }
+
+    public void add(String path, String message) {
+        Buffer buffer = buffers.get();
+        buffer.entries.add(new Entry(path, message));
+        added.increment();
+        if (buffer.entries.size() >= RUN_SIZE) {
+            spill(buffer);
+        }
+    }
+
+    // Число добавленных результатов, включая повторы
+    public long size() {
+        return added.sum();
+    }
+
+    public int runCount() {
+        return runs.size();
+    }
+
+    // Вызывается после окончания обхода, когда add больше никто не вызывает. Возвращает число строк
+    public long writeSorted(WritableByteChannel output) throws IOException {
+        List<Iterator<Entry>> sources = new ArrayList<>();
+        List<Closeable> readers = new ArrayList<>();
+        try {
+            for (Path run : runs) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                sources.add(reader);
+            }
+            for (Buffer buffer : allBuffers) {
+                buffer.entries.sort(BY_PATH);
+                sources.add(buffer.entries.iterator());
+            }
+            return merge(sources, output);
+        } finally {
+            for (Closeable reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        Files.deleteIfExists(spillDirectory);
+    }
+
+    private Buffer newBuffer() {
+        Buffer buffer = new Buffer();
+        allBuffers.add(buffer);
+        return buffer;
+    }
+
+    private void spill(Buffer buffer) {
+        buffer.entries.sort(BY_PATH);
+        try {
+            Path run = Files.createTempFile(spillDirectory, "run-", ".bin");
+            try (FileChannel channel = FileChannel.open(run, StandardOpenOption.WRITE);
+                 DataOutputStream out = new DataOutputStream(
+                         new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024))) {
+                out.writeInt(buffer.entries.size());
+                for (Entry entry : buffer.entries) {
+                    writeString(out, entry.path());
+                    writeString(out, entry.message());
+                }
+            }
+            runs.add(run);
+            buffer.entries.clear();
+        } catch (IOException e) {
+            // Диск недоступен - результаты остаются в памяти, при следующем заполнении попробуем снова
+            System.err.println("Ошибка записи результатов на диск: " + e.getMessage());
+        }
+    }
+
+    private static long merge(List<Iterator<Entry>> sources, WritableByteChannel output) throws IOException {
+        PriorityQueue<Head> heads = new PriorityQueue<>(Comparator.comparing(head -> head.entry.path()));
+        for (Iterator<Entry> source : sources) {
+            if (source.hasNext()) {
+                heads.add(new Head(source.next(), source));
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        byte[] separator = ": ".getBytes(StandardCharsets.UTF_8);
+        byte[] newline = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+        String previous = null;
+        long lines = 0;
+        while (!heads.isEmpty()) {
+            Head head = heads.poll();
+            Entry entry = head.entry;
+            if (head.source.hasNext()) {
+                head.entry = head.source.next();
+                heads.add(head);
+            }
+            if (entry.path().equals(previous)) {
+                continue;
+            }
+            previous = entry.path();
+            buffer = put(output, buffer, entry.path().getBytes(StandardCharsets.UTF_8));
+            buffer = put(output, buffer, separator);
+            buffer = put(output, buffer, entry.message().getBytes(StandardCharsets.UTF_8));
+            buffer = put(output, buffer, newline);
+            lines++;
+        }
+        drain(output, buffer);
+        return lines;
+    }
+
+    private static ByteBuffer put(WritableByteChannel output, ByteBuffer buffer, byte[] bytes) throws IOException {
+        if (buffer.remaining() < bytes.length) {
+            drain(output, buffer);
+            if (buffer.capacity() < bytes.length) {
+                buffer = ByteBuffer.allocate(bytes.length);
+            }
+        }
+        return buffer.put(bytes);
+    }
+
+    private static void drain(WritableByteChannel output, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static final class Buffer {
+        final List<Entry> entries = new ArrayList<>();
+    }
+
+    private static final class Head {
+        Entry entry;
+        final Iterator<Entry> source;
+
+        Head(Entry entry, Iterator<Entry> source) {
+            this.entry = entry;
+            this.source = source;
+        }
+    }
+
+    // Прогон читается по одной записи
+    private static final class RunReader implements Iterator<Entry>, Closeable {
+        private final DataInputStream in;
+        private int remaining;
+
+        RunReader(Path run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(FileChannel.open(run, StandardOpenOption.READ)), 64 * 1024));
+            this.remaining = in.readInt();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public Entry next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            remaining--;
+            try {
+                return new Entry(readString(), readString());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    record Entry(String path, String message) {}
+}
@@ -1,200 +1,353 @@
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Spider {
     private final HttpClient client;
-    private final String baseUrl;
-    private final Set<String> visited = ConcurrentHashMap.newKeySet();
-    private final Queue<String> toVisit = new ConcurrentLinkedQueue<>();
-    private final List<PathMessage> results = new CopyOnWriteArrayList<>();
+    private final FetchScheduler scheduler;
+    // Несколько серверов с одним и тем же графом: путь всегда запрашивается у одного и того же
+    private final List<String> baseUrls;
+    private final VisitedSet visited;
+    // Обработанные пути и их сообщения; сортируются слиянием прогонов в конце обхода
+    private ResultSink results;
+    // Обработанные пути ведутся отдельно только для журнала
+    private VisitedSet completed;
+    private CrawlJournal journal;
 
-    private static class PathMessage implements Comparable<PathMessage> {
-        final String path;
-        final String message;
+    // Число путей, которые отправлены на обработку и ещё не обработаны.
+    // Потомки учитываются до того, как завершится родитель, поэтому ноль означает конец обхода
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final CountDownLatch finished = new CountDownLatch(1);
 
-        PathMessage(String path, String message) {
-            this.path = path;
-            this.message = message;
-        }
+    private CrawlMetrics metrics;
+    // Построчный вывод обработанных путей идёт через фоновый поток; null - вывод выключен (--quiet)
+    private final AsyncLog log;
+
+    // Параметры запуска: порт или адреса серверов и необязательные опции вида --key=value
+    record Options(List<String> baseUrls, int maxInFlight, int initialInFlight, int retries, long targetLatencyMs,
+                   long timeoutMs, String journal, boolean resume, String visited, long expectedPaths,
+                   double falsePositiveRate, String output, boolean quiet, String httpVersion,
+                   int maxRequestsPerHost, long keepAliveSeconds, int poolSize, double logSample, long progressSeconds,
+                   String summary) {
+        static final String USAGE = """
+                Использование: java Spider <port|url>[,<port|url>...] [опции]
+                Пример: java Spider 8080 --max-in-flight=128
+                        java Spider 8080,8081,http://10.0.0.5:8080 --http=2
+                Опции:
+                  --max-in-flight=N       максимум одновременных запросов (по умолчанию 64)
+                  --initial-in-flight=N   начальный лимит, дальше подстраивается по AIMD (по умолчанию 8)
+                  --retries=N             повторов при таймауте, 5xx и 429 (по умолчанию 3)
+                  --target-latency-ms=N   ответ медленнее считается признаком перегрузки (по умолчанию 2000)
+                  --timeout-ms=N          таймаут одного запроса (по умолчанию 15000)
+                  --journal=DIR           сохранять прогресс обхода в каталог DIR
+                  --resume                продолжить обход из журнала (каталог по умолчанию spider-journal)
+                  --visited=MODE          множество найденных путей: heap (по умолчанию), offheap - точное вне кучи,
+                                          bloom - приблизительное, с журналом не совместимо
+                  --expected-paths=N      ожидаемое число путей для offheap и bloom (по умолчанию 1000000)
+                  --fpp=P                 доля ложных срабатываний bloom (по умолчанию 0.0001)
+                  --output=FILE           записать отсортированные результаты в файл, а не в stdout
+                  --quiet                 не печатать каждый обработанный путь
+                  --http=VERSION          1.1 или 2 (по умолчанию 1.1); для http:// HTTP/2 включается через h2c Upgrade
+                  --max-requests-per-host=N  предел одновременных запросов к одному серверу (по умолчанию 32);
+                                          пулом соединений управляют --keep-alive-s и --pool-size
+                  --keep-alive-s=N        сколько секунд держать простаивающее соединение (по умолчанию 1200)
+                  --pool-size=N           максимум простаивающих соединений в пуле, 0 - без ограничения
+                  --log-sample=R          доля обработанных путей, выводимых построчно (по умолчанию 1)
+                  --progress-s=N          строка прогресса в stderr раз в N секунд, 0 - выключить (по умолчанию 5)
+                  --summary=FILE          записать сводку метрик в JSON""";
 
-        @Override
-        public int compareTo(PathMessage other) {
-            return this.path.compareTo(other.path);
+        static Options parse(String[] args) {
+            if (args.length < 1) {
+                throw new IllegalArgumentException("не указан порт");
+            }
+            Map<String, String> options = new HashMap<>();
+            for (int i = 1; i < args.length; i++) {
+                if (!args[i].startsWith("--")) {
+                    throw new IllegalArgumentException("неизвестный аргумент " + args[i]);
+                }
+                // Опция без значения - флаг
+                int eq = args[i].indexOf('=');
+                if (eq < 0) {
+                    options.put(args[i].substring(2), "true");
+                } else {
+                    options.put(args[i].substring(2, eq), args[i].substring(eq + 1));
+                }
+            }
+            boolean resume = Boolean.parseBoolean(options.getOrDefault("resume", "false"));
+            if (options.getOrDefault("visited", "heap").equals("bloom") && (resume || options.containsKey("journal"))) {
+                throw new IllegalArgumentException("--visited=bloom нельзя совмещать с журналом");
+            }
+            List<String> baseUrls = new ArrayList<>();
+            for (String target : args[0].split(",")) {
+                target = target.trim();
+                if (target.matches("\\d+")) {
+                    baseUrls.add("http://localhost:" + target);
+                } else if (target.startsWith("http://") || target.startsWith("https://")) {
+                    baseUrls.add(target.endsWith("/") ? target.substring(0, target.length() - 1) : target);
+                } else {
+                    throw new IllegalArgumentException("ожидался порт или URL: " + target);
+                }
+            }
+            String httpVersion = options.getOrDefault("http", "1.1");
+            if (!httpVersion.equals("1.1") && !httpVersion.equals("2")) {
+                throw new IllegalArgumentException("неизвестная версия HTTP " + httpVersion);
+            }
+            return new Options(List.copyOf(baseUrls),
+                    Integer.parseInt(options.getOrDefault("max-in-flight", "64")),
+                    Integer.parseInt(options.getOrDefault("initial-in-flight", "8")),
+                    Integer.parseInt(options.getOrDefault("retries", "3")),
+                    Long.parseLong(options.getOrDefault("target-latency-ms", "2000")),
+                    Long.parseLong(options.getOrDefault("timeout-ms", "15000")),
+                    options.getOrDefault("journal", resume ? "spider-journal" : null),
+                    resume,
+                    options.getOrDefault("visited", "heap"),
+                    Long.parseLong(options.getOrDefault("expected-paths", "1000000")),
+                    Double.parseDouble(options.getOrDefault("fpp", "0.0001")),
+                    options.get("output"),
+                    Boolean.parseBoolean(options.getOrDefault("quiet", "false")),
+                    httpVersion,
+                    Integer.parseInt(options.getOrDefault("max-requests-per-host", "32")),
+                    Long.parseLong(options.getOrDefault("keep-alive-s", "1200")),
+                    Integer.parseInt(options.getOrDefault("pool-size", "0")),
+                    Double.parseDouble(options.getOrDefault("log-sample", "1")),
+                    Long.parseLong(options.getOrDefault("progress-s", "5")),
+                    options.get("summary"));
         }
     }
 
+    private final Options options;
+
     public Spider(int port) {
-        this.baseUrl = "http://localhost:" + port;
+        this(Options.parse(new String[] {String.valueOf(port)}));
+    }
+
+    public Spider(Options options) {
+        this.options = options;
+        this.visited = VisitedSet.create(options.visited(), options.expectedPaths(), options.falsePositiveRate());
+        this.baseUrls = options.baseUrls();
+        configureConnectionPool(options);
         this.client = HttpClient.newBuilder()
+                .version(options.httpVersion().equals("2") ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
                 .connectTimeout(Duration.ofSeconds(10))
                 .build();
+        this.scheduler = new FetchScheduler(client, options.maxInFlight(), options.initialInFlight(),
+                options.retries(), options.targetLatencyMs(), options.maxRequestsPerHost());
+        this.log = options.quiet() ? null : new AsyncLog(options.logSample(), 65_536);
+    }
+
+    // Пул соединений HttpClient настраивается только системными свойствами, и они читаются один раз
+    // при загрузке клиента - поэтому в одном процессе действуют настройки первого паука.
+    // Явно заданные через -D свойства не трогаем
+    private static void configureConnectionPool(Options options) {
+        String keepAlive = String.valueOf(options.keepAliveSeconds());
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout", keepAlive);
+        }
+        if (System.getProperty("jdk.httpclient.keepalive.timeout.h2") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout.h2", keepAlive);
+        }
+        if (System.getProperty("jdk.httpclient.connectionPoolSize") == null) {
+            System.setProperty("jdk.httpclient.connectionPoolSize", String.valueOf(options.poolSize()));
+        }
     }
 
-    private Map<String, Object> parseJson(String json) {
-        Map<String, Object> result = new HashMap<>();
-        List<String> successors = new ArrayList<>();
+    // Сервер выбирается по хешу пути, так что повторные запросы пути идут к тому же серверу
+    private String baseUrlFor(String path) {
+        if (baseUrls.size() == 1) {
+            return baseUrls.get(0);
+        }
+        long hash = VisitedSet.hash(VisitedSet.bytes(path));
+        return baseUrls.get((int) Math.floorMod(hash, (long) baseUrls.size()));
+    }
 
-        try {
-            // Упрощенный парсинг JSON
-            int messageStart = json.indexOf("\"message\":\"");
-            if (messageStart != -1) {
-                int start = messageStart + 10; // длина "\"message\":\""
-                int end = json.indexOf("\"", start + 1);
-                if (end != -1) {
-                    String message = json.substring(start + 1, end);
-                    result.put("message", message);
-                }
-            }
+    // Запрос отправляется асинхронно, тело разбирается потоком по мере прихода (PageParser).
+    // Future завершается, когда страница обработана и её потомки отправлены
+    private CompletableFuture<Void> processPath(String path, int depth) {
+        long start = System.nanoTime();
+        // Формируем правильный URL
+        String urlPath = path.startsWith("/") ? path : "/" + path;
+        URI uri = URI.create(baseUrlFor(urlPath) + urlPath);
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(Duration.ofMillis(options.timeoutMs()))
+                .GET()
+                .build();
 
-            int successorsStart = json.indexOf("\"successors\":[");
-            if (successorsStart != -1) {
-                int start = successorsStart + 14; // длина "\"successors\":["
-                int end = json.indexOf("]", start);
-                if (end != -1) {
-                    String arrayContent = json.substring(start, end);
-                    // Убираем пробелы и кавычки
-                    arrayContent = arrayContent.replace("\"", "").replace(" ", "");
-                    if (!arrayContent.isEmpty()) {
-                        String[] items = arrayContent.split(",");
-                        for (String item : items) {
-                            if (!item.isEmpty()) {
-                                successors.add(item);
-                            }
-                        }
-                    }
+        // Планировщик сам повторяет таймауты и временные ошибки; сюда приходит только ответ 200
+        return scheduler.fetch(request, PageParser.bodyHandler()).thenAccept(response -> {
+            PageParser.Page page = response.body();
+            String message = page.message() != null ? page.message() : "";
+
+            List<String> discovered = new ArrayList<>();
+            for (String successor : page.successors()) {
+                if (visited.add(successor)) {
+                    discovered.add(successor);
                 }
             }
-        } catch (Exception e) {
-            System.err.println("Ошибка парсинга JSON: " + e.getMessage());
-        }
+            // Сначала состояние в памяти, потом журнал: снимок журнала читает это состояние
+            results.add(path, message);
+            if (journal != null) {
+                completed.add(path);
+                journal.completed(path, message, discovered);
+            }
+            metrics.pageDone(depth, page.bytes(), System.nanoTime() - start);
+            if (log != null && log.shouldSample()) {
+                log.info("Обработан путь: " + path + ", сообщение: " + message);
+            }
 
-        result.put("successors", successors);
-        return result;
+            // Глубина продолженных из журнала путей неизвестна, их потомки тоже учитываются без глубины
+            int childDepth = depth < 0 ? -1 : depth + 1;
+            for (String successor : discovered) {
+                submit(successor, childDepth);
+            }
+        });
     }
 
-    private void processPath(String path) {
+    private void submit(String path, int depth) {
+        inFlight.incrementAndGet();
+        CompletableFuture<Void> processed;
         try {
-            // Формируем правильный URL
-            String urlPath = path.startsWith("/") ? path : "/" + path;
-            URI uri = URI.create(baseUrl + urlPath);
-
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(uri)
-                    .timeout(Duration.ofSeconds(15))
-                    .GET()
-                    .build();
-
-            HttpResponse<String> response = client.send(request,
-                    HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() == 200) {
-                Map<String, Object> data = parseJson(response.body());
-                String message = (String) data.get("message");
-                @SuppressWarnings("unchecked")
-                List<String> successors = (List<String>) data.get("successors");
-
-                results.add(new PathMessage(path, message != null ? message : ""));
-                System.out.printf("Обработан путь: %s, сообщение: %s%n",
-                        path, message != null ? message : "");
-
-                if (successors != null) {
-                    for (String successor : successors) {
-                        if (visited.add(successor)) {
-                            toVisit.add(successor);
-                        }
-                    }
-                }
-            } else {
-                System.err.printf("HTTP ошибка для пути %s: %d%n", path, response.statusCode());
-            }
-        } catch (Exception e) {
-            System.err.println("Ошибка при обработке " + path + ": " + e.getMessage());
+            processed = processPath(path, depth);
+        } catch (RuntimeException e) {
+            processed = CompletableFuture.failedFuture(e);
         }
+        processed.whenComplete((ignored, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                System.err.println("Ошибка при обработке " + path + ": " + cause.getMessage());
+                metrics.pageFailed();
+            }
+            if (inFlight.decrementAndGet() == 0) {
+                finished.countDown();
+            }
+        });
     }
 
-    public void crawl() throws Exception {
-        System.out.println("Запуск паука для сервера на порту: " +
-                baseUrl.substring(baseUrl.lastIndexOf(":") + 1));
-
-        toVisit.add("/");
-        visited.add("/");
-
-        // Используем виртуальные потоки (Java 21+)
-        ExecutorService executor;
-        try {
-            executor = Executors.newVirtualThreadPerTaskExecutor();
-        } catch (Exception e) {
-            // Fallback для более старых версий Java
-            executor = Executors.newFixedThreadPool(50);
+    // Возвращает число обработанных путей
+    public long crawl() throws Exception {
+        if (baseUrls.size() == 1 && baseUrls.get(0).startsWith("http://localhost:")) {
+            System.out.println("Запуск паука для сервера на порту: " +
+                    baseUrls.get(0).substring(baseUrls.get(0).lastIndexOf(":") + 1));
+        } else {
+            System.out.println("Запуск паука для серверов: " + String.join(", ", baseUrls));
         }
 
-        List<Future<?>> futures = new ArrayList<>();
+        results = new ResultSink();
+        metrics = new CrawlMetrics(scheduler, inFlight::get);
+        if (options.journal() != null) {
+            completed = VisitedSet.create(options.visited(), options.expectedPaths(), options.falsePositiveRate());
+            journal = CrawlJournal.open(Path.of(options.journal()), options.resume(), visited, completed,
+                    results::add);
+        }
 
-        while (true) {
-            String path = toVisit.poll();
-            if (path != null) {
-                Future<?> future = executor.submit(() -> processPath(path));
-                futures.add(future);
-            } else {
-                // Проверяем, есть ли еще задачи в обработке
-                Thread.sleep(50);
-
-                // Если очередь пуста и все задачи завершены
-                boolean allDone = true;
-                for (Future<?> future : futures) {
-                    if (!future.isDone()) {
-                        allDone = false;
-                        break;
-                    }
+        // Каждый обработанный путь сам отправляет своих потомков; ждём, пока не закончится последний.
+        // Отдельных потоков на путь нет: продолжения выполняются на пуле HttpClient.
+        // При продолжении заново отправляются только найденные, но не обработанные пути
+        List<String> start = new ArrayList<>();
+        boolean fresh = visited.size() == 0;
+        if (fresh) {
+            visited.add("/");
+            if (journal != null) {
+                journal.discovered("/");
+            }
+            start.add("/");
+        } else {
+            visited.forEach(path -> {
+                if (!completed.contains(path)) {
+                    start.add(path);
                 }
+            });
+        }
 
-                if (allDone && toVisit.isEmpty()) {
-                    break;
-                }
+        // Счётчик поднимаем заранее, чтобы он не дошёл до нуля, пока отправлены не все стартовые пути
+        metrics.startProgress(options.progressSeconds());
+        inFlight.incrementAndGet();
+        for (String path : start) {
+            submit(path, fresh ? 0 : -1);
+        }
+        if (inFlight.decrementAndGet() == 0) {
+            finished.countDown();
+        }
+        finished.await();
+        metrics.stop();
 
-                // Проверяем не слишком часто
-                if (toVisit.isEmpty()) {
-                    Thread.sleep(200);
-                }
+        if (journal != null) {
+            journal.close();
+        }
+        if (log != null) {
+            log.close();
+            if (log.droppedCount() > 0) {
+                System.err.printf("Строк лога отброшено из-за переполнения очереди: %d%n", log.droppedCount());
             }
         }
-
-        executor.shutdown();
-        if (!executor.awaitTermination(2, TimeUnit.MINUTES)) {
-            executor.shutdownNow();
+        long lines = printResults();
+        if (options.summary() != null) {
+            metrics.writeJson(Path.of(options.summary()));
+            System.out.println("Сводка метрик записана в " + options.summary());
         }
+        return lines;
+    }
 
-        Collections.sort(results);
-        printResults();
+    FetchScheduler scheduler() {
+        return scheduler;
     }
 
-    private void printResults() {
-        System.out.println("\n=== Результаты (отсортированы лексикографически) ===");
-        for (PathMessage pm : results) {
-            System.out.printf("%s: %s%n", pm.path, pm.message);
+    // Результаты пишутся слиянием прямо в канал, без сборки всего списка в памяти
+    private long printResults() throws IOException {
+        long lines;
+        try (ResultSink sink = results) {
+            if (options.output() != null) {
+                try (FileChannel output = FileChannel.open(Path.of(options.output()), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    lines = sink.writeSorted(output);
+                }
+                System.out.printf("%nРезультаты записаны в %s%n", options.output());
+            } else {
+                System.out.println("\n=== Результаты (отсортированы лексикографически) ===");
+                System.out.flush();
+                lines = sink.writeSorted(Channels.newChannel(System.out));
+                System.out.flush();
+            }
         }
-        System.out.printf("\nВсего обработано: %d путей%n", results.size());
+        System.out.printf("\nВсего обработано: %d путей%n", lines);
+        System.out.printf("Запросов: %d, повторов: %d, неудач: %d, итоговый лимит одновременных запросов: %d%n",
+                scheduler.requestCount(), scheduler.retryCount(), scheduler.failureCount(),
+                scheduler.currentLimit());
+        System.out.println(metrics.progressLine());
+        metrics.printDepths();
+        System.out.printf("Ответов по HTTP/2: %d%n", scheduler.http2Count());
+        scheduler.hostStats().forEach((host, stats) ->
+                System.out.printf("  %s: запросов %d, одновременно до %d%n", host, stats[0], stats[1]));
+        return lines;
     }
 
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Использование: java Spider <port>");
-            System.out.println("Пример: java Spider 8080");
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Ошибка: " + e.getMessage());
+            System.out.println(Options.USAGE);
             System.exit(1);
+            return;
         }
 
         try {
-            int port = Integer.parseInt(args[0]);
-            Spider spider = new Spider(port);
+            Spider spider = new Spider(options);
             spider.crawl();
         } catch (Exception e) {
             System.err.println("Ошибка: " + e.getMessage());
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
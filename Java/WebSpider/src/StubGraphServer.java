@@ -0,0 +1,233 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Тестовый сервер для паука: отдаёт синтетический граф в том же формате, что и настоящий,
+// {"message": "...", "successors": [...]}. Узел 0 - путь "/", остальные - "/<номер>".
+// Графы:
+//   tree  - B-арное дерево, каждый узел находится ровно один раз;
+//   dag   - дерево плюс рёбра к последним HUBS узлам: на них ссылаются почти все страницы;
+//   chain - одна цепочка, параллелить нечего - проверка задержки на страницу;
+//   cycle - дерево, где каждый узел ещё ссылается на корень и на родителя.
+// Задержка у каждого узла своя и не меняется между запусками (от 0.5 до 1.5 от --latency-ms),
+// ошибки 503 выпадают случайно с долей --error-rate и при повторе проходят.
+public class StubGraphServer implements Closeable {
+    private static final int HUBS = 64;
+
+    static {
+        // Заголовки и тело HttpServer пишет отдельно; с алгоритмом Нейгла каждый ответ ждал бы ~40 мс
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    record Config(String graph, int nodes, int branching, long latencyMs, double errorRate, int payloadBytes) {
+        static final String USAGE = """
+                Использование: java StubGraphServer <port> [опции]
+                Опции:
+                  --graph=KIND          tree, dag, chain или cycle (по умолчанию tree)
+                  --nodes=N             число узлов (по умолчанию 10000)
+                  --branching=B         потомков у узла (по умолчанию 8)
+                  --latency-ms=N        средняя задержка ответа (по умолчанию 0)
+                  --error-rate=P        доля ответов 503 (по умолчанию 0)
+                  --payload-bytes=N     дополнительные байты в сообщении (по умолчанию 0)""";
+
+        // Опции вида --key=value, начиная с from
+        static Config parse(String[] args, int from) {
+            Map<String, String> options = new HashMap<>();
+            for (int i = from; i < args.length; i++) {
+                int eq = args[i].indexOf('=');
+                if (!args[i].startsWith("--") || eq < 0) {
+                    throw new IllegalArgumentException("неизвестный аргумент " + args[i]);
+                }
+                options.put(args[i].substring(2, eq), args[i].substring(eq + 1));
+            }
+            Config config = new Config(options.getOrDefault("graph", "tree"),
+                    Integer.parseInt(options.getOrDefault("nodes", "10000")),
+                    Integer.parseInt(options.getOrDefault("branching", "8")),
+                    Long.parseLong(options.getOrDefault("latency-ms", "0")),
+                    Double.parseDouble(options.getOrDefault("error-rate", "0")),
+                    Integer.parseInt(options.getOrDefault("payload-bytes", "0")));
+            if (!List.of("tree", "dag", "chain", "cycle").contains(config.graph())) {
+                throw new IllegalArgumentException("неизвестный граф " + config.graph());
+            }
+            if (config.nodes() < 1 || config.branching() < 1) {
+                throw new IllegalArgumentException("nodes и branching должны быть положительными");
+            }
+            return config;
+        }
+    }
+
+    private final Config config;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final String padding;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    // Адрес и порт клиента различаются у каждого TCP-соединения - по ним считаем, сколько соединений открыл паук
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+
+    private StubGraphServer(int port, Config config) throws IOException {
+        this.config = config;
+        this.padding = config.payloadBytes() > 0 ? " " + "x".repeat(config.payloadBytes()) : "";
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+    }
+
+    // port = 0 - свободный порт, узнать его можно через port().
+    // Обработчик регистрируется и сервер запускается уже после конструктора, когда объект построен
+    public static StubGraphServer start(int port, Config config) throws IOException {
+        StubGraphServer stub = new StubGraphServer(port, config);
+        stub.server.createContext("/", stub::handle);
+        stub.server.setExecutor(stub.executor);
+        stub.server.start();
+        return stub;
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public Config config() {
+        return config;
+    }
+
+    public long requestCount() {
+        return requests.sum();
+    }
+
+    public long errorCount() {
+        return errors.sum();
+    }
+
+    public long connectionCount() {
+        return connections.size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    List<Integer> successors(int id) {
+        int n = config.nodes();
+        int b = config.branching();
+        List<Integer> result = new ArrayList<>();
+        switch (config.graph()) {
+            case "tree", "cycle", "dag" -> {
+                for (long child = (long) b * id + 1; child <= (long) b * id + b && child < n; child++) {
+                    result.add((int) child);
+                }
+                if (config.graph().equals("cycle") && id > 0) {
+                    result.add(0);
+                    result.add((id - 1) / b);
+                }
+                if (config.graph().equals("dag")) {
+                    // Рёбра только к узлам с большим номером, поэтому циклов нет
+                    int window = Math.min(HUBS, n - 1 - id);
+                    for (int k = 0; k < b && window > 0; k++) {
+                        result.add(n - 1 - (int) Math.floorMod(VisitedSet.mix(id * 31L + k), (long) window));
+                    }
+                }
+            }
+            case "chain" -> {
+                if (id + 1 < n) {
+                    result.add(id + 1);
+                }
+            }
+            default -> throw new IllegalStateException(config.graph());
+        }
+        return result;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.increment();
+            connections.add(exchange.getRemoteAddress());
+            int id = nodeOf(exchange.getRequestURI().getPath());
+            if (id < 0) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            if (config.latencyMs() > 0) {
+                double spread = 0.5 + (VisitedSet.mix(id) >>> 11) * 0x1.0p-53;
+                Thread.sleep((long) (config.latencyMs() * spread));
+            }
+            if (config.errorRate() > 0 && ThreadLocalRandom.current().nextDouble() < config.errorRate()) {
+                errors.increment();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            StringBuilder json = new StringBuilder("{\"message\":\"node ").append(id).append(padding)
+                    .append("\",\"successors\":[");
+            List<Integer> successors = successors(id);
+            for (int i = 0; i < successors.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append('"').append(pathOf(successors.get(i))).append('"');
+            }
+            json.append("]}");
+
+            byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static String pathOf(int id) {
+        return id == 0 ? "/" : "/" + id;
+    }
+
+    private int nodeOf(String path) {
+        if (path.equals("/")) {
+            return 0;
+        }
+        try {
+            int id = Integer.parseInt(path.substring(1));
+            return id > 0 && id < config.nodes() ? id : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port;
+        Config config;
+        try {
+            if (args.length < 1) {
+                throw new IllegalArgumentException("не указан порт");
+            }
+            port = Integer.parseInt(args[0]);
+            config = Config.parse(args, 1);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Ошибка: " + e.getMessage());
+            System.out.println(Config.USAGE);
+            System.exit(1);
+            return;
+        }
+
+        StubGraphServer server = StubGraphServer.start(port, config);
+        System.out.printf("Тестовый сервер на порту %d: граф %s, узлов %d%n",
+                server.port(), config.graph(), config.nodes());
+    }
+}
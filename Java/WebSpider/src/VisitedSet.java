@@ -0,0 +1,52 @@
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+// Множество уже найденных путей. Реализации потокобезопасны:
+//   heap    - ConcurrentHashMap, просто и быстро, но на каждый путь уходит String и узел таблицы;
+//   offheap - точное: байты путей в памяти вне кучи, на куче только таблица long с открытой адресацией;
+//   bloom   - приблизительное: фильтр Блума, ложноположительный ответ означает, что путь не будет обойдён.
+public interface VisitedSet {
+    // true - путь добавлен впервые
+    boolean add(String path);
+
+    boolean contains(String path);
+
+    long size();
+
+    // Обход всех путей; фильтр Блума путей не хранит и обход не поддерживает
+    void forEach(Consumer<String> action);
+
+    boolean supportsIteration();
+
+    static VisitedSet create(String mode, long expectedPaths, double falsePositiveRate) {
+        return switch (mode) {
+            case "heap" -> new ConcurrentVisitedSet();
+            case "offheap" -> new OffHeapVisitedSet(expectedPaths);
+            case "bloom" -> new BloomVisitedSet(expectedPaths, falsePositiveRate);
+            default -> throw new IllegalArgumentException("неизвестный режим visited: " + mode);
+        };
+    }
+
+    // FNV-1a с финальным перемешиванием из MurmurHash3
+    static long hash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    static byte[] bytes(String path) {
+        return path.getBytes(StandardCharsets.UTF_8);
+    }
+}
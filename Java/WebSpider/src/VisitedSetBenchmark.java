@@ -0,0 +1,98 @@
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Сравнение реализаций VisitedSet на синтетическом графе: пути узлов 10-арного дерева в порядке обхода в ширину.
+// Каждый путь добавляется дважды, как если бы на него ссылались две страницы; для bloom считается число
+// ложных срабатываний - новых путей, которые фильтр посчитал уже найденными.
+// Замеряется только само множество, без HTTP; обход через StubGraphServer с тем же режимом -
+// java CrawlBenchmark [опции] -- --visited=MODE
+// Запуск: java -Xmx4g VisitedSetBenchmark [число путей, по умолчанию 10000000] [потоков] [режимы через запятую]
+public class VisitedSetBenchmark {
+    private static final int BRANCHING = 10;
+
+    public static void main(String[] args) throws Exception {
+        long paths = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String[] modes = (args.length > 2 ? args[2] : "heap,offheap,bloom").split(",");
+
+        System.out.printf("Путей: %d, потоков: %d%n", paths, threads);
+        System.out.printf("%-8s %12s %12s %14s %14s %12s%n",
+                "режим", "вставка, с", "нс/операцию", "куча, МБ", "вне кучи, МБ", "ложных");
+        for (String mode : modes) {
+            run(mode, paths, threads);
+        }
+    }
+
+    private static void run(String mode, long paths, int threads) throws InterruptedException {
+        long heapBefore = usedHeap();
+        long directBefore = directMemory();
+
+        VisitedSet visited = VisitedSet.create(mode, paths, 0.0001);
+        AtomicLong falsePositives = new AtomicLong();
+        long start = System.nanoTime();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int worker = t;
+            workers.add(Thread.startVirtualThread(() -> {
+                long missed = 0;
+                for (long id = worker; id < paths; id += threads) {
+                    String path = pathOf(id);
+                    if (!visited.add(path)) {
+                        missed++;
+                    }
+                    visited.add(path);
+                }
+                falsePositives.addAndGet(missed);
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // Множество ещё достижимо, поэтому замер после GC показывает его размер
+        long heap = usedHeap() - heapBefore;
+        long direct = directMemory() - directBefore;
+        System.out.printf("%-8s %12.2f %12.0f %14.1f %14.1f %12d%n",
+                mode, elapsed / 1e9, (double) elapsed / (paths * 2),
+                heap / 1048576.0, direct / 1048576.0, falsePositives.get());
+        Reference.reachabilityFence(visited);
+    }
+
+    // Путь узла id: корень "/", дети узла i - узлы BRANCHING * i + 1 .. BRANCHING * i + BRANCHING
+    static String pathOf(long id) {
+        if (id == 0) {
+            return "/";
+        }
+        StringBuilder path = new StringBuilder();
+        while (id > 0) {
+            long child = (id - 1) % BRANCHING;
+            path.insert(0, "/" + child);
+            id = (id - 1) / BRANCHING;
+        }
+        return path.toString();
+    }
+
+    // Direct-буферы освобождает Cleaner в своём потоке, поэтому после GC ещё немного ждём
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long directMemory() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+}